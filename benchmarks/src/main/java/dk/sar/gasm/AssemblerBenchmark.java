@@ -0,0 +1,115 @@
+package dk.sar.gasm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dk.sar.gasm.BenchmarkPrograms.Example;
+import dk.sar.gasm.output.NullObjectCodeSink;
+import dk.sar.gasm.spec.CompiledSpec;
+
+/**
+ * The assembler on the bundled examples scaled to several sizes, or on
+ * generated programs of those sizes for the example specs: both passes, each
+ * pass on its own, the one-pass engine, and matching the lines against the
+ * assemblyOpTree. Every operation assembles or matches the whole program.
+ *
+ * @author Eddie Graham
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class AssemblerBenchmark {
+	private Assembler assembler;
+	@Param
+	private Example example;
+	/** A job past its first pass, for the second pass. */
+	private AssemblyJob firstPassDone;
+	/** Generated programs using every operand format, else the repeated example. */
+	@Param({ "false", "true" })
+	private boolean generated;
+	@Param({ "1000", "10000", "100000" })
+	private int lines;
+	/** Assembles with backpatching, see {@link AssemblerOptions#isOnePass()}. */
+	private Assembler onePassAssembler;
+	/** Operand tokens of the .text lines, as given to the matcher. */
+	private final List<List<String>> operandTokens = new ArrayList<>();
+	private final AssemblerOptions options = new AssemblerOptions();
+	private List<String> program;
+	private CompiledSpec spec;
+
+	@Benchmark
+	public void assemble() throws AssemblerException {
+		assembler.assemble(program, new NullObjectCodeSink());
+	}
+
+	@Benchmark
+	public void assembleOnePass() throws AssemblerException {
+		onePassAssembler.assemble(program, new NullObjectCodeSink());
+	}
+
+	@Benchmark
+	public AssemblyJob firstPass() throws AssemblerException {
+		var job = new AssemblyJob(spec, options, program, new NullObjectCodeSink());
+		job.firstPass();
+		return job;
+	}
+
+	@Benchmark
+	public void match(Blackhole blackhole) {
+		var matcher = spec.getAssemblyOpTreeMatcher();
+
+		for (List<String> tokens : operandTokens) {
+			blackhole.consume(matcher.match(tokens));
+		}
+	}
+
+	@Benchmark
+	public void secondPass() throws AssemblerException {
+		firstPassDone.secondPass();
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		spec = CompiledSpec.load(BenchmarkPrograms.specFile(example));
+		program = generated ? BenchmarkPrograms.generated(example, lines) : BenchmarkPrograms.program(example, lines);
+		assembler = new Assembler(spec, options);
+
+		var onePass = new AssemblerOptions();
+		onePass.setOnePass(true);
+		onePassAssembler = new Assembler(spec, onePass);
+
+		var inText = false;
+
+		for (String line : program) {
+			var tokens = spec.getLexer().tokenize(line);
+
+			if (tokens.contentEquals(".data")) {
+				inText = false;
+			} else if (tokens.contentEquals(".text")) {
+				inText = true;
+			} else if (inText && !tokens.isEmpty()) {
+				operandTokens.add(tokens.operandTokens());
+			}
+		}
+
+		firstPassDone = new AssemblyJob(spec, options, program, new NullObjectCodeSink());
+		firstPassDone.firstPass();
+	}
+}
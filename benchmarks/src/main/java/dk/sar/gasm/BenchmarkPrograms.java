@@ -0,0 +1,126 @@
+package dk.sar.gasm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import dk.sar.gasm.generator.ProgramGenerator;
+import dk.sar.gasm.spec.YamlSpecReader;
+
+/**
+ * The bundled example programs, scaled for the benchmarks.
+ * <p>
+ * A program keeps the .data section of its example and repeats the .text
+ * section, the labels of each copy renamed so every copy defines its own. A
+ * generated program uses every operand format of the spec instead, see
+ * {@link ProgramGenerator}.
+ *
+ * @author Eddie Graham
+ */
+public final class BenchmarkPrograms {
+
+	/** The bundled architectures. */
+	public enum Example {
+		M68K("Moto68000/68kspec.yaml", "Moto68000/68kassembly.asm", "loop"),
+		MIPS("MIPS/mipsspec.yaml", "MIPS/mipsassembly.asm"),
+		X86("x86/x86spec.yaml", "x86/x86assembly.asm", "loop");
+
+		private final String assembly;
+		/** Labels defined in the .text section. */
+		private final String[] labels;
+		private final String spec;
+
+		Example(String spec, String assembly, String... labels) {
+			this.spec = spec;
+			this.assembly = assembly;
+			this.labels = labels;
+		}
+	}
+
+	/**
+	 * A random program of the given number of lines for the spec of an example,
+	 * the same for every run.
+	 */
+	static List<String> generated(Example example, int lines) throws Exception {
+		var spec = new YamlSpecReader(specFile(example).toString()).getSpecFile();
+		return new ProgramGenerator(spec, 0).generate(lines);
+	}
+
+	/**
+	 * The program of an example with its .text section repeated to about the
+	 * given number of lines, at least once.
+	 */
+	static List<String> program(Example example, int lines) throws IOException {
+		var source = new String(resource(example.assembly).readAllBytes(), StandardCharsets.UTF_8).split("\r?\n");
+		List<String> program = new ArrayList<>();
+		List<String> text = new ArrayList<>();
+		var inText = false;
+
+		for (String line : source) {
+			if (inText) {
+				if (!line.isBlank()) {
+					text.add(line);
+				}
+			} else {
+				program.add(line);
+				inText = line.trim().equals(".text");
+			}
+		}
+
+		var labels = example.labels.length == 0 ? null
+				: Pattern.compile("\\b(" + String.join("|", example.labels) + ")\\b");
+		var copies = Math.max(1, lines / text.size());
+
+		for (var copy = 0; copy < copies; copy++) {
+			var suffix = suffix(copy);
+
+			for (String line : text) {
+				program.add(labels == null ? line : labels.matcher(line).replaceAll("$1" + suffix));
+			}
+		}
+
+		return program;
+	}
+
+	/** The spec of an example, copied to a file for the spec readers. */
+	static Path specFile(Example example) throws IOException {
+		var file = Files.createTempFile(example.name().toLowerCase(), ".yaml");
+		file.toFile().deleteOnExit();
+
+		try (var in = resource(example.spec)) {
+			Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return file;
+	}
+
+	private static InputStream resource(String name) throws IOException {
+		var in = BenchmarkPrograms.class.getClassLoader().getResourceAsStream(name);
+
+		if (in == null) {
+			throw new IOException("Resource not found: " + name);
+		}
+
+		return in;
+	}
+
+	/** Labels must be alphabetic, so copies are told apart by letters. */
+	private static String suffix(int copy) {
+		var suffix = new StringBuilder();
+
+		for (var n = copy; n > 0; n /= 26) {
+			suffix.append((char) ('a' + n % 26));
+		}
+
+		return suffix.toString();
+	}
+
+	private BenchmarkPrograms() {
+	}
+}
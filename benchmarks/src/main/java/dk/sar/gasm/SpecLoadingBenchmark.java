@@ -0,0 +1,66 @@
+package dk.sar.gasm;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.sar.gasm.BenchmarkPrograms.Example;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.spec.BinarySpecReader;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.YamlSpecReader;
+
+/**
+ * Reading the bundled specs from YAML and from their binary form, and
+ * compiling them.
+ *
+ * @author Eddie Graham
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class SpecLoadingBenchmark {
+	/** The spec in the form of the binary spec cache. */
+	private byte[] binary;
+	@Param
+	private Example example;
+	private SpecFile spec;
+	private Path specFile;
+
+	@Benchmark
+	public CompiledSpec compile() throws AssemblerException {
+		return CompiledSpec.compile(spec);
+	}
+
+	@Benchmark
+	public SpecFile read() throws Exception {
+		return new YamlSpecReader(specFile.toString()).getSpecFile();
+	}
+
+	@Benchmark
+	public SpecFile readBinary() throws Exception {
+		return BinarySpecReader.decode(ByteBuffer.wrap(binary));
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		specFile = BenchmarkPrograms.specFile(example);
+		spec = new YamlSpecReader(specFile.toString()).getSpecFile();
+		binary = BinarySpecReader.encode(spec);
+	}
+}
@@ -12,4 +12,8 @@ public class AssemblerException extends Exception {
 	public AssemblerException(String message) {
 		super(message);
 	}
+
+	public AssemblerException(String message, Throwable cause) {
+		super(message, cause);
+	}
 }
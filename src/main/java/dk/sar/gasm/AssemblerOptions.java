@@ -0,0 +1,33 @@
+package dk.sar.gasm;
+
+import lombok.Data;
+
+/**
+ * Options of an {@link Assembler} run. The defaults assemble sequentially.
+ *
+ * @author Eddie Graham
+ */
+@Data
+public class AssemblerOptions {
+	/** Source lines or statements handled by one task of a parallel pass. */
+	private int chunkSize = 4096;
+	/**
+	 * Encode each statement as it is read and backpatch the label fields of
+	 * forward references, instead of keeping the statements for a second
+	 * pass. One-pass runs are sequential, {@link #parallel} is ignored.
+	 */
+	private boolean onePass = false;
+	/** Run the first and second pass in chunks on a ForkJoinPool. */
+	private boolean parallel = false;
+	/** Threads of the ForkJoinPool, 0 for the common pool. */
+	private int parallelism = 0;
+	/**
+	 * Encode an instruction whose line fits several operand formats with a
+	 * label operand in the smallest one whose fields hold the label, i.e. a
+	 * short jump when the target is near. Otherwise the first format listed
+	 * for the mnemonic is used, as the one-pass engine always does.
+	 */
+	private boolean relax = true;
+	/** Read the source through a memory-mapped file instead of onto the heap. */
+	private boolean streaming = false;
+}
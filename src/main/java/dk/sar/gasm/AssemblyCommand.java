@@ -0,0 +1,389 @@
+package dk.sar.gasm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.google.common.collect.Lists;
+
+import dk.sar.gasm.output.ErrorReportSink;
+import dk.sar.gasm.output.OutputFormat;
+import dk.sar.gasm.spec.BinarySpecCache;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.SpecLoader;
+import lombok.Getter;
+
+/**
+ * An assembly run as given on the command line: options, a specification file
+ * and an assembly file, or with {@code --batch} any number of assembly files
+ * and directories. Shared by {@link Main} and the assembler daemon, which
+ * runs it for the working directory of its client.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public class AssemblyCommand {
+	/** Outcome of one file of a batch. */
+	private static final class BatchResult {
+		private long bytes;
+		/** Why the file failed, null if it was assembled. */
+		private String error;
+		private final Path file;
+		private long lines;
+		private final AssemblyStats stats;
+
+		private BatchResult(Path file, AssemblyStats stats) {
+			this.stats = stats;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Parse the arguments of {@link Main}.
+	 *
+	 * @param args - Options followed by the specification and assembly file.
+	 * @return The command.
+	 * @throws IllegalArgumentException if the arguments are not valid, with the
+	 *                                  message to show the user.
+	 */
+	public static AssemblyCommand parse(String[] args) {
+		var command = new AssemblyCommand();
+		var optionCount = 0;
+
+		while (optionCount < args.length && args[optionCount].startsWith("--")) {
+			var option = args[optionCount++];
+
+			if (option.equals("--batch")) {
+				command.batch = true;
+			} else if (option.startsWith("--fill=")) {
+				int fill;
+
+				try {
+					fill = Integer.parseInt(option.substring("--fill=".length()), 16);
+				} catch (NumberFormatException e) {
+					fill = -1;
+				}
+
+				if (fill < 0 || fill > 0xFF) {
+					throw new IllegalArgumentException("Fill value is not a hex byte: " + option);
+				}
+
+				command.fill = (byte) fill;
+			} else if (option.startsWith("--format=")) {
+				command.format = OutputFormat.forName(option.substring("--format=".length()));
+
+				if (command.format == null) {
+					throw new IllegalArgumentException("Unknown output format: " + option);
+				}
+			} else if (option.startsWith("--jobs=")) {
+				try {
+					command.jobs = Integer.parseInt(option.substring("--jobs=".length()));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Number of jobs is not a number: " + option);
+				}
+			} else if (option.equals("--no-relax")) {
+				command.options.setRelax(false);
+			} else if (option.startsWith("--object-cache=")) {
+				command.objectCache = option.substring("--object-cache=".length());
+			} else if (option.startsWith("--object-cache-size=")) {
+				try {
+					command.objectCacheSize = Long.parseLong(option.substring("--object-cache-size=".length()))
+							* 1024 * 1024;
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Object cache size is not a number: " + option);
+				}
+			} else if (option.equals("--one-pass")) {
+				command.options.setOnePass(true);
+			} else if (option.equals("--parallel")) {
+				command.options.setParallel(true);
+			} else if (option.startsWith("--spec-cache=")) {
+				command.specCache = option.substring("--spec-cache=".length());
+			} else if (option.equals("--stats")) {
+				command.stats = true;
+			} else if (option.equals("--stream")) {
+				command.options.setStreaming(true);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+
+		args = Arrays.copyOfRange(args, optionCount, args.length);
+
+		if (command.batch) {
+			if (args.length == 0) {
+				throw new IllegalArgumentException("Specification file and assembly files not given.");
+			} else if (args.length == 1) {
+				throw new IllegalArgumentException(
+						"Assembly files or directories not given.\nSpecification file: " + args[0]);
+			} else if (!args[0].endsWith(".yaml")) {
+				throw new IllegalArgumentException("Specification file must be a .yaml file.");
+			}
+
+			command.specFile = args[0];
+			command.inputs = Arrays.asList(Arrays.copyOfRange(args, 1, args.length));
+			return command;
+		}
+
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Specification and assembly filenames not given.");
+		}
+
+		else if (args.length == 1) {
+			throw new IllegalArgumentException("Assembly file not given.\nSpecification file: " + args[0]);
+		}
+
+		else if (args.length > 2) {
+			throw new IllegalArgumentException("Too many arguments provided.");
+		}
+
+		if (!args[0].endsWith(".yaml") || !args[1].endsWith(".asm")) {
+			throw new IllegalArgumentException("Input is limited to two files.");
+		}
+
+		command.specFile = args[0];
+		command.assemblyFile = args[1];
+		return command;
+	}
+
+	private String assemblyFile;
+	/** Assemble many files against one spec, see {@link #getInputs()}. */
+	private boolean batch;
+	/** Value of the gaps in a binary image. */
+	private byte fill = (byte) 0xFF;
+	private OutputFormat format = OutputFormat.LISTING;
+	/** Assembly files and directories of a batch. */
+	private List<String> inputs = Collections.emptyList();
+	/** Files of a batch assembled at once, 0 for one per core. */
+	private int jobs;
+	/** Directory of the object code cache, null to assemble every time. */
+	private String objectCache;
+	/** Bytes the object code cache is kept to. */
+	private long objectCacheSize = ObjectCodeCache.DEFAULT_MAX_BYTES;
+	private final AssemblerOptions options = new AssemblerOptions();
+	/** Directory of the binary spec cache, null to read the YAML every time. */
+	private String specCache;
+	private String specFile;
+	/** Add the timings and counters of the run to the messages. */
+	private boolean stats;
+
+	private AssemblyCommand() {
+	}
+
+	/**
+	 * Assemble, writing {@code object_code.*} and any error reports to a
+	 * directory as {@link Main} writes them to the working directory.
+	 * <p>
+	 * A batch writes the output of each assembly file next to it, named after
+	 * the file with the extension of the format, and the error report of a
+	 * binary format to a {@code .txt} file of the same name. Directories are
+	 * searched for {@code .asm} files. The files are assembled on a
+	 * work-stealing pool, and a summary is added to the messages.
+	 * <p>
+	 * With {@code --stats} the {@link AssemblyStats} of the run, or the sum of
+	 * those of a batch, are added to the messages. With {@code --spec-cache} the
+	 * spec is loaded through a {@link BinarySpecCache} instead of the loader,
+	 * and with {@code --object-cache} sources are assembled through an
+	 * {@link ObjectCodeCache}.
+	 *
+	 * @param directory - Directory the files are resolved against and written
+	 *                  to.
+	 * @param specs     - Loads the compiled spec.
+	 * @param messages  - Receives the messages to show the user.
+	 * @return True if the source was assembled, false if an error was reported.
+	 * @throws IOException if a file cannot be read or written.
+	 */
+	public boolean execute(Path directory, SpecLoader specs, List<String> messages) throws IOException {
+		if (specCache != null) {
+			specs = new BinarySpecCache(directory.resolve(specCache));
+		}
+
+		var cache = objectCache == null ? null : new ObjectCodeCache(directory.resolve(objectCache), objectCacheSize);
+
+		if (batch) {
+			return executeBatch(directory, specs, cache, messages);
+		}
+
+		var report = directory.resolve("object_code.txt");
+		var assemblyCode = FileParser.readAssemblyCode(directory.resolve(assemblyFile).toRealPath(),
+				options.isStreaming());
+		var runStats = stats ? new AssemblyStats() : null;
+		CompiledSpec spec = null;
+		AssemblerException specError = null;
+		var start = System.nanoTime();
+
+		try {
+			spec = specs.load(directory.resolve(specFile));
+		} catch (FileParserException e) {
+			Assembler.writeLinesToFile(report.toString(), Lists.newArrayList(e.getMessage()));
+			Assembler.writeLinesToFile(directory.resolve("spec_error_report.txt").toString(), e.getErrorReport());
+			return false;
+		} catch (AssemblerException e) {
+			specError = e;
+		}
+
+		if (runStats != null) {
+			runStats.setSpecLoadNanos(System.nanoTime() - start);
+		}
+
+		var assembled = assemble(spec, specError, assemblyCode,
+				directory.resolve("object_code." + format.getExtension()), report, cache, runStats);
+
+		if (runStats != null) {
+			messages.addAll(runStats.report());
+		}
+
+		return assembled;
+	}
+
+	/**
+	 * Assemble a source to an output file of the format.
+	 *
+	 * @param specError - Error compiling the spec, reported instead.
+	 * @param report    - File of the error report of a binary format.
+	 * @param cache     - Object code cache, or null.
+	 * @param runStats  - Receives the stats of the run, or null.
+	 */
+	private boolean assemble(CompiledSpec spec, AssemblerException specError, List<String> assemblyCode, Path output,
+			Path report, ObjectCodeCache cache, AssemblyStats runStats) throws IOException {
+		var formatSink = format.open(output, fill);
+
+		try (var sink = format == OutputFormat.LISTING ? formatSink : new ErrorReportSink(formatSink, report)) {
+			if (specError != null) {
+				sink.error(specError.getMessage());
+				return false;
+			}
+
+			var assembler = new Assembler(spec, options);
+
+			if (cache == null) {
+				assembler.assemble(assemblyCode, sink, runStats);
+			} else {
+				cache.assemble(assembler, assemblyCode, sink, runStats);
+			}
+
+			return true;
+		} catch (AssemblerException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Assemble a file of a batch, next to the file. Failures are kept in the
+	 * result, not thrown.
+	 */
+	private BatchResult assembleFile(CompiledSpec spec, Path file, ObjectCodeCache cache) {
+		var result = new BatchResult(file, stats ? new AssemblyStats() : null);
+
+		try {
+			var assemblyCode = FileParser.readAssemblyCode(file, options.isStreaming());
+			var name = file.getFileName().toString();
+			var stem = name.endsWith(".asm") ? name.substring(0, name.length() - 4) : name;
+
+			result.lines = assemblyCode.size();
+			result.bytes = Files.size(file);
+
+			if (!assemble(spec, null, assemblyCode, file.resolveSibling(stem + "." + format.getExtension()),
+					file.resolveSibling(stem + ".txt"), cache, result.stats)) {
+				result.error = "see " + file.resolveSibling(stem + ".txt");
+			}
+		} catch (IOException | RuntimeException e) {
+			// One file failing, i.e. a mapped file that cannot be decoded, does not stop the batch
+			result.error = e.toString();
+		}
+
+		return result;
+	}
+
+	private boolean executeBatch(Path directory, SpecLoader specs, ObjectCodeCache cache, List<String> messages)
+			throws IOException {
+		CompiledSpec spec;
+		var specStart = System.nanoTime();
+
+		try {
+			spec = specs.load(directory.resolve(specFile));
+		} catch (FileParserException e) {
+			messages.add(e.getMessage());
+			Assembler.writeLinesToFile(directory.resolve("spec_error_report.txt").toString(), e.getErrorReport());
+			return false;
+		} catch (AssemblerException e) {
+			messages.add(e.getMessage());
+			return false;
+		}
+
+		var specLoadNanos = System.nanoTime() - specStart;
+		List<Path> files = new ArrayList<>();
+
+		for (String input : inputs) {
+			var path = directory.resolve(input);
+
+			if (Files.isDirectory(path)) {
+				try (var walk = Files.walk(path)) {
+					walk.filter(f -> f.toString().endsWith(".asm") && Files.isRegularFile(f)).sorted()
+							.forEach(files::add);
+				}
+			} else if (Files.isRegularFile(path)) {
+				files.add(path);
+			} else {
+				messages.add("Assembly file or directory not found: " + input);
+				return false;
+			}
+		}
+
+		var results = new BatchResult[files.size()];
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(files.size());
+
+		for (var i = 0; i < files.size(); i++) {
+			var index = i;
+			tasks.add(ForkJoinTask.adapt(() -> {
+				results[index] = assembleFile(spec, files.get(index), cache);
+			}));
+		}
+
+		var start = System.nanoTime();
+		var pool = new ForkJoinPool(jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors());
+
+		try {
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		} finally {
+			pool.shutdown();
+		}
+
+		var seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		long lines = 0;
+		long bytes = 0;
+		var failed = 0;
+		var batchStats = new AssemblyStats();
+		batchStats.setSpecLoadNanos(specLoadNanos);
+
+		for (BatchResult result : results) {
+			lines += result.lines;
+			bytes += result.bytes;
+
+			if (result.stats != null) {
+				batchStats.add(result.stats);
+			}
+
+			if (result.error != null) {
+				failed++;
+				messages.add("Failed: " + result.file + " (" + result.error + ")");
+			}
+		}
+
+		messages.add(String.format("Assembled %d of %d files (%d lines, %d bytes) in %.3f s", results.length - failed,
+				results.length, lines, bytes, seconds));
+		messages.add(String.format("Throughput: %.1f files/s, %.0f lines/s, %.2f MB/s", results.length / seconds,
+				lines / seconds, bytes / seconds / (1024 * 1024)));
+
+		if (stats) {
+			messages.addAll(batchStats.report());
+		}
+
+		return failed == 0;
+	}
+}
@@ -0,0 +1,1604 @@
+package dk.sar.gasm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import dk.sar.gasm.encode.BitVector;
+import dk.sar.gasm.encode.EncodingTemplate.OperandSlot;
+import dk.sar.gasm.ir.DataStatement;
+import dk.sar.gasm.ir.InstructionStatement;
+import dk.sar.gasm.ir.Statement;
+import dk.sar.gasm.lexer.Lexer;
+import dk.sar.gasm.lexer.TokenLine;
+import dk.sar.gasm.output.ObjectCodeSink;
+import dk.sar.gasm.spec.AssemblyOpTreeMatcher;
+import dk.sar.gasm.spec.CompiledMnemonic;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.FormatSyntax;
+import dk.sar.gasm.spec.InstructionSet;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One run of the two pass assembler: the symbol and address tables and the
+ * statements of a single source. A job is used by one caller once, the
+ * {@link CompiledSpec} it reads is shared.
+ *
+ * @author Eddie Graham
+ */
+@Slf4j
+final class AssemblyJob {
+	/**
+	 * A line of the .data section: {@code label nMAU value},
+	 * {@code label nMAU} or {@code label .ascii "text"}.
+	 */
+	private static final class DataLine {
+		/** Text of an .ascii line, null otherwise. */
+		private String ascii;
+		/** Value of an initialised line, null otherwise. */
+		private String integer;
+		private String label;
+		private int noOfMinAdrUnits;
+	}
+
+	/** A label or section header found by the first pass. */
+	private static final class Definition {
+		/** True for a label of the .data section. */
+		private final boolean data;
+		private final int lineNumber;
+		/** Label, or ".data" or ".text" for a section header. */
+		private final String name;
+		/** Address of a label relative to the start of its range. */
+		private final int offset;
+		private final boolean section;
+
+		private Definition(int lineNumber, String name, boolean section, boolean data, int offset) {
+			this.lineNumber = lineNumber;
+			this.name = name;
+			this.section = section;
+			this.data = data;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * A label field of an instruction encoded before the label was defined, see
+	 * {@link AssemblerOptions#isOnePass()}.
+	 */
+	private static final class Fixup {
+		/** Encoding of the instruction, shared by its fixups. */
+		private final BitVector binary;
+		/** Index of the instruction. */
+		private final int index;
+		private final int lineNumber;
+		private final int nextAddress;
+		private final OperandSlot slot;
+		private final String term;
+
+		private Fixup(BitVector binary, int index, int lineNumber, int nextAddress, OperandSlot slot, String term) {
+			this.binary = binary;
+			this.index = index;
+			this.lineNumber = lineNumber;
+			this.nextAddress = nextAddress;
+			this.slot = slot;
+			this.term = term;
+		}
+	}
+
+	/**
+	 * First pass over a range of source lines.
+	 * <p>
+	 * Statements are sized and given addresses relative to the start of the
+	 * range, and labels and section headers are only recorded, so ranges can be
+	 * analysed in parallel and checked against each other when merged. Analysis
+	 * stops at the first error of the range.
+	 * <p>
+	 * When backpatching, the chunk covers the whole source and each label and
+	 * statement is passed on as soon as it is found instead.
+	 */
+	private final class FirstPassChunk {
+		private boolean atData, atText;
+		/** Define labels and encode statements as they are found. */
+		private boolean backpatching;
+		/** Labels and section headers in source order. */
+		private final List<Definition> definitions = new ArrayList<>();
+		private AssemblerException error;
+		private int errorLine;
+		/** Operand formats checked, see {@link AssemblyStats}. */
+		private long formatCandidates;
+		private final int from;
+		/** Derivations explored by the matcher, see {@link AssemblyStats}. */
+		private long grammarPaths;
+		private int instructions;
+		/** Section of the last section header in the range, null if none. */
+		private String lastSection;
+		private List<List<String>> legitAssemblyOpTreePaths = new ArrayList<>();
+		private final List<String> lines;
+		private int locationCounter;
+		/** Instructions of the range with a choice of encodings. */
+		private final List<Relaxable> relaxables = new ArrayList<>();
+		/** Address of each statement relative to the start of the range. */
+		private int[] offsets = new int[16];
+		private final List<Statement> statements = new ArrayList<>();
+		private final int to;
+
+		private FirstPassChunk(List<String> lines, int from, int to) {
+			this.lines = lines;
+			this.from = from;
+			this.to = to;
+		}
+
+		private void addDefinition(Definition definition) throws AssemblerException {
+			if (backpatching) {
+				define(definition, 0);
+			} else {
+				definitions.add(definition);
+			}
+		}
+
+		private void addStatement(Statement statement, int size) {
+			if (backpatching) {
+				emit(statement, locationCounter, size);
+				locationCounter += size;
+				return;
+			}
+
+			if (statements.size() == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+
+			offsets[statements.size()] = locationCounter;
+			statements.add(statement);
+			locationCounter += size;
+		}
+
+		private void analyse() {
+			for (var i = from; i < to; i++) {
+				var tokens = lexer.tokenize(lines.get(i));
+
+				if (!tokens.isEmpty()) {
+					try {
+						analyseLineFirstPass(i + 1, tokens);
+					} catch (AssemblerException e) {
+						error = e;
+						errorLine = i + 1;
+						return;
+					}
+				}
+			}
+		}
+
+		private void analyseDataFirstPass(int lineNumber, TokenLine assemblyLine) throws AssemblerException {
+			var dataLine = parseDataLine(assemblyLine);
+			var label = dataLine.label;
+			var noOfMinAdrUnits = 0;
+
+			if (dataLine.ascii != null) {
+				var noOfBits = dataLine.ascii.length() * 8;
+				var minAdrUnit = spec.getMinAdrUnit();
+				noOfMinAdrUnits = noOfBits / minAdrUnit;
+			} else {
+				noOfMinAdrUnits = dataLine.noOfMinAdrUnits;
+			}
+
+			addDefinition(new Definition(lineNumber, label, false, true, locationCounter));
+
+			try {
+				addStatement(new DataStatement(lineNumber, encodeData(dataLine)), noOfMinAdrUnits);
+			} catch (AssemblerException e) {
+				addStatement(new DataStatement(lineNumber, e), noOfMinAdrUnits);
+			}
+		}
+
+		private void analyseInstructionsFirstPass(int lineNumber, TokenLine assemblyLine) throws AssemblerException {
+			legitAssemblyOpTreePaths = new ArrayList<>();
+			var match = analyseWithAssemblyOpTree(assemblyLine);
+
+			log.debug("{}", legitAssemblyOpTreePaths);
+
+			if (legitAssemblyOpTreePaths.isEmpty()) {
+				throw new AssemblerException("Assembly line not consistent with assemblyOpTree. Please check tree.");
+			}
+
+			var mnemData = getMnemData(assemblyLine);
+
+			if (mnemData == null) {
+				throw new AssemblerException("Mnemonic not declared in MnemonicData section within specification file.");
+			}
+
+			var operandFormats = mnemData.getFormats();
+			List<CompiledMnemonic.Format> legitOpFormats = new ArrayList<>();
+			formatCandidates += operandFormats.size();
+
+			// Find operand format matches
+			for (CompiledMnemonic.Format opFormat : operandFormats) {
+				if (formatMatch(opFormat.getSyntax())) {
+					legitOpFormats.add(opFormat);
+				}
+			}
+
+			if (legitOpFormats.isEmpty()) {
+				var error = new StringBuilder("Incorrectly formatted operands. Expected formats for mnemonic \"")
+						.append(mnemData.getMnemonic().getMnemonic()).append("\":\n");
+				for (CompiledMnemonic.Format opFormat : operandFormats) {
+					error.append("\n").append(opFormat.getMnemFormat());
+				}
+				error.append("\n\nIt is assumed that the operands specified above are NOT optional.\n")
+						.append("Operand tree built from assembly line:\n\n").append(legitAssemblyOpTreePaths);
+				throw new AssemblerException(error.toString());
+			}
+
+			var relevantOperands = getRelevantOperands(legitOpFormats.get(0).getSyntax());
+			CompiledMnemonic.Format foundOpFormat = null;
+
+			// Match syntax of line (separator commas match)
+			for (CompiledMnemonic.Format opFormat : legitOpFormats) {
+				if (opFormat.getSyntax().matches(assemblyLine, relevantOperands)) {
+					foundOpFormat = opFormat;
+					break;
+				}
+			}
+
+			if (foundOpFormat == null) {
+				var error = new StringBuilder(
+						"Assembly line syntax error. Check use of commas and spaces between operands. Expected syntax:\n");
+				for (CompiledMnemonic.Format opFormat : legitOpFormats) {
+					error.append("\n").append(opFormat.getMnemFormat());
+				}
+				throw new AssemblerException(error.toString());
+			}
+
+			var statement = instruction(lineNumber, mnemData, foundOpFormat, relevantOperands, match);
+
+			if (!backpatching && options.isRelax() && legitOpFormats.size() > 1) {
+				var candidates = relaxCandidates(lineNumber, mnemData, assemblyLine, legitOpFormats, relevantOperands,
+						match);
+
+				if (candidates != null) {
+					statement = candidates[0];
+					relaxables.add(new Relaxable(statements.size(), candidates));
+				}
+			}
+
+			var insSize = statement.getTemplate().getWidth();
+
+			var minAdrUnit = spec.getMinAdrUnit();
+			var noOfAdrUnits = insSize / minAdrUnit;
+
+			// Find any relocation point labels
+			var label = getLabelString();
+
+			if (label != null) {
+				addDefinition(new Definition(lineNumber, label, false, false, locationCounter));
+			}
+
+			addStatement(statement, noOfAdrUnits);
+			instructions++;
+		}
+
+		private void analyseLineFirstPass(int lineNumber, TokenLine assemblyLine) throws AssemblerException {
+			if (assemblyLine.contentEquals(".data")) {
+				addDefinition(new Definition(lineNumber, ".data", true, false, 0));
+				atData = true;
+				atText = false;
+			} else if (assemblyLine.contentEquals(".text")) {
+				addDefinition(new Definition(lineNumber, ".text", true, false, 0));
+				atData = false;
+				atText = true;
+			} else if (atData) {
+				analyseDataFirstPass(lineNumber, assemblyLine);
+			} else if (atText) {
+				analyseInstructionsFirstPass(lineNumber, assemblyLine);
+			} else {
+				throw new AssemblerException("No section header (\".data\" or \".text\").");
+			}
+		}
+
+		private AssemblyOpTreeMatcher.Match analyseWithAssemblyOpTree(TokenLine assemblyLine) {
+			var match = assemblyOpTreeMatcher.match(assemblyLine.operandTokens());
+
+			if (match != null) {
+				legitAssemblyOpTreePaths = match.getPaths();
+				grammarPaths += match.getExplored();
+			}
+
+			return match;
+		}
+
+		private boolean formatMatch(FormatSyntax syntax) {
+			var mnemFormatTokens = syntax.getNames();
+
+			var i = 0;
+			var found = false;
+			var optional = false;
+
+			for (List<String> path : legitAssemblyOpTreePaths) {
+
+				for (String pathTerm : path) {
+
+					if (i >= mnemFormatTokens.size()) {
+						return false;
+					}
+
+					if (pathTerm.equals(mnemFormatTokens.get(i))) {
+						found = true;
+					} else if (pathTerm.equals("?")) {
+						optional = true;
+					}
+				}
+
+				// Assumes nodes specified in operand format are not optional
+				if (found && !optional) {
+					i++;
+				} else if (!found && !optional) {
+					return false;
+				}
+
+				found = false;
+				optional = false;
+			}
+
+			if (i != mnemFormatTokens.size()) {
+				return false;
+			}
+
+			return true;
+		}
+
+		private String getLabelString() {
+			// Assumes relocation labels at beginning of instruction (in first path)
+			String label = null;
+			var foundLabel = false;
+
+			for (List<String> path : legitAssemblyOpTreePaths) {
+				for (String term : path) {
+
+					if (term.equals("LABEL")) {
+						foundLabel = true;
+					}
+
+					if (foundLabel) {
+						label = term;
+					}
+				}
+				break;
+			}
+
+			return label;
+		}
+
+		private List<String> getRelevantOperands(FormatSyntax syntax) {
+			List<String> relevantOps = new ArrayList<>();
+			var mnemFormatTokens = syntax.getNames();
+
+			var i = 0;
+			var found = false;
+			var optional = false;
+
+			for (List<String> path : legitAssemblyOpTreePaths) {
+				for (String pathTerm : path) {
+
+					if (pathTerm.equals(mnemFormatTokens.get(i))) {
+						found = true;
+					} else if (pathTerm.equals("?")) {
+						optional = true;
+					}
+				}
+
+				// Assumes nodes in operand format are not optional
+				if (found && !optional) {
+					i++;
+					relevantOps.add(getAssemblyOperand(path));
+				}
+
+				found = false;
+				optional = false;
+			}
+
+			return relevantOps;
+		}
+
+		/**
+		 * An instruction in an operand format. Operands that do not fit the field
+		 * encodings are reported by the second pass.
+		 */
+		private InstructionStatement instruction(int lineNumber, CompiledMnemonic mnemData,
+				CompiledMnemonic.Format opFormat, List<String> relevantOperands, AssemblyOpTreeMatcher.Match match) {
+			var template = opFormat.getTemplate();
+			String[] terms = null;
+			String[] termTypes = null;
+			AssemblerException error = null;
+
+			try {
+				terms = template.mapOperands(relevantOperands);
+				termTypes = new String[terms.length];
+
+				for (var i = 0; i < terms.length; i++) {
+					termTypes[i] = terms[i] == null ? null : match.getTermTypes().get(terms[i]);
+				}
+			} catch (AssemblerException e) {
+				error = e;
+			}
+
+			return new InstructionStatement(lineNumber, mnemData.getMnemonic(), opFormat.getFormat(), template, terms,
+					termTypes, error);
+		}
+
+		/**
+		 * The operand formats a line with a label operand can be encoded in,
+		 * smallest first, or null if there is no choice.
+		 */
+		private InstructionStatement[] relaxCandidates(int lineNumber, CompiledMnemonic mnemData,
+				TokenLine assemblyLine, List<CompiledMnemonic.Format> legitOpFormats, List<String> relevantOperands,
+				AssemblyOpTreeMatcher.Match match) {
+			List<InstructionStatement> candidates = new ArrayList<>();
+			var label = false;
+
+			for (CompiledMnemonic.Format opFormat : legitOpFormats) {
+				if (opFormat.getSyntax().matches(assemblyLine, relevantOperands)) {
+					var candidate = instruction(lineNumber, mnemData, opFormat, relevantOperands, match);
+
+					if (candidate.getError() == null) {
+						candidates.add(candidate);
+						label |= Arrays.asList(candidate.getTermTypes()).contains("LABEL");
+					}
+				}
+			}
+
+			if (candidates.size() < 2 || !label) {
+				return null;
+			}
+
+			candidates.sort(Comparator.comparingInt(candidate -> candidate.getTemplate().getWidth()));
+			return candidates.toArray(new InstructionStatement[0]);
+		}
+
+		/**
+		 * Find the section the range ends in. Only lines starting with a dot can be
+		 * section headers, the others are not tokenized.
+		 */
+		private void scanSections() {
+			for (var i = from; i < to; i++) {
+				var line = lines.get(i);
+				var start = 0;
+
+				while (start < line.length() && line.charAt(start) <= ' ') {
+					start++;
+				}
+
+				if (start < line.length() && line.charAt(start) == '.') {
+					var tokens = lexer.tokenize(line);
+
+					if (tokens.contentEquals(".data") || tokens.contentEquals(".text")) {
+						lastSection = tokens.content();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A source line analysed by the first pass, kept between the runs of an
+	 * {@link IncrementalAssembler}. The analysis of a line depends on its text
+	 * and the section it is in, not on where it is, so it is shared by the
+	 * lines alike in both. Its record is kept as well, with the label values
+	 * it was encoded with.
+	 */
+	static final class Line {
+		/** Encodings of the instruction, smallest first, null if no choice. */
+		private final InstructionStatement[] candidates;
+		/** Label or section header of the line, null if none. */
+		private final Definition definition;
+		/** Statement the record was encoded from, null until encoded. */
+		private Statement encoded;
+		private final AssemblerException error;
+		/** Value of each operand slot of the record, 0 for slots without a label. */
+		private long[] labelValues;
+		private byte[] record;
+		/** Section after the line, ".data", ".text" or null. */
+		private final String section;
+		/** Size of the statement in minimum addressable units. */
+		private final int size;
+		/** Statement of the line, null if none. */
+		private final Statement statement;
+
+		private Line(FirstPassChunk chunk) {
+			candidates = chunk.relaxables.isEmpty() ? null : chunk.relaxables.get(0).candidates;
+			definition = chunk.definitions.isEmpty() ? null : chunk.definitions.get(0);
+			error = chunk.error;
+			section = chunk.atData ? ".data" : chunk.atText ? ".text" : null;
+			size = chunk.locationCounter;
+			statement = chunk.statements.isEmpty() ? null : chunk.statements.get(0);
+		}
+	}
+
+	/** An instruction with a choice of encodings, see {@link BranchRelaxation}. */
+	private static final class Relaxable {
+		/** Encodings of the instruction, smallest first. */
+		private final InstructionStatement[] candidates;
+		/** Index of the encoding chosen so far. */
+		private int choice;
+		/** Index of the statement, relative to its range until merged. */
+		private int index;
+
+		private Relaxable(int index, InstructionStatement[] candidates) {
+			this.index = index;
+			this.candidates = candidates;
+		}
+	}
+
+	/**
+	 * Encodes a range of statements of the second pass into object code units.
+	 * Ranges above the chunk size are split in two and encoded in parallel.
+	 */
+	private final class EncodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private AssemblerException error;
+		/** Index of the statement that failed, -1 if none. */
+		private int failedAt = -1;
+		private final int from;
+		private final byte[][] records;
+		private final int to;
+
+		private EncodeTask(byte[][] records, int from, int to) {
+			this.records = records;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= options.getChunkSize()) {
+				encodeChunk();
+				return;
+			}
+
+			var middle = (from + to) >>> 1;
+			var left = new EncodeTask(records, from, middle);
+			var right = new EncodeTask(records, middle, to);
+			invokeAll(left, right);
+
+			// The first error in source order is reported
+			var failed = left.error != null ? left : right;
+			failedAt = failed.failedAt;
+			error = failed.error;
+		}
+
+		private void encodeChunk() {
+			for (var i = from; i < to; i++) {
+				try {
+					records[i] = toUnits(encodeStatement(i));
+				} catch (AssemblerException e) {
+					failedAt = i;
+					error = e;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Address of every statement by index, followed by the address after the
+	 * last statement.
+	 */
+	private int[] addresses = new int[1];
+	/** Lines analysed by {@link #reassemble(Map, Map)}, not taken from the last run. */
+	int analysedLines;
+	private final AssemblyOpTreeMatcher assemblyOpTreeMatcher;
+	/** Source lines of the job. */
+	private final List<String> assemblyCode;
+	/** Bytes written to the sink. */
+	private long bytesEmitted;
+	/** Labels of the .data section. */
+	private SymbolTable dataTable = new SymbolTable();
+	/** First error encoding a statement when backpatching, null if none. */
+	private AssemblerException encodeError;
+	/** Index of the statement of {@link #encodeError}. */
+	private int encodeErrorIndex;
+	private int encodeErrorLine;
+	/** Statements encoded by {@link #reassemble(Map, Map)}, not taken from the last run. */
+	int encodedStatements;
+	/** Label fields left to patch when backpatching, in statement order. */
+	private final List<Fixup> fixups = new ArrayList<>();
+	private final InstructionSet instructionSet;
+	private final Lexer lexer;
+	private final AssemblerOptions options;
+	/** Statements encoded when backpatching. */
+	private int recordCount;
+	/** Instructions with a choice of encodings, in statement order. */
+	private final List<Relaxable> relaxables = new ArrayList<>();
+	/** Object code of each statement when backpatching, null until patched. */
+	private byte[][] records;
+	/** Sections declared so far, ".data" or ".text". */
+	private final Set<String> sections = new HashSet<>();
+	private final ObjectCodeSink sink;
+	private final CompiledSpec spec;
+	/** Statements of the source in order, built by the first pass. */
+	private final List<Statement> statements = new ArrayList<>();
+	/** Receives the timings and counters of the run, null if not wanted. */
+	private final AssemblyStats stats;
+	/** Labels of the .text section. */
+	private SymbolTable symbolTable = new SymbolTable();
+
+	AssemblyJob(CompiledSpec spec, AssemblerOptions options, List<String> assemblyCode, ObjectCodeSink sink) {
+		this(spec, options, assemblyCode, sink, null);
+	}
+
+	/**
+	 * @param spec         - Compiled spec of the architecture.
+	 * @param options      - Options of the run.
+	 * @param assemblyCode - Source lines to assemble.
+	 * @param sink         - Receives the object code as it is produced.
+	 * @param stats        - Receives the timings and counters, or null.
+	 */
+	AssemblyJob(CompiledSpec spec, AssemblerOptions options, List<String> assemblyCode, ObjectCodeSink sink,
+			AssemblyStats stats) {
+		this.spec = spec;
+		this.options = options;
+		this.assemblyCode = assemblyCode;
+		this.sink = sink;
+		this.stats = stats;
+
+		assemblyOpTreeMatcher = spec.getAssemblyOpTreeMatcher();
+		instructionSet = spec.getInstructionSet();
+		lexer = spec.getLexer();
+	}
+
+	/**
+	 * Analyse a single line for {@link #reassemble(Map, Map)}.
+	 *
+	 * @param index   - Index of the line.
+	 * @param section - Section the line is in, null if none.
+	 */
+	private Line analyse(int index, String section) {
+		var chunk = new FirstPassChunk(assemblyCode, index, index + 1);
+		chunk.atData = ".data".equals(section);
+		chunk.atText = ".text".equals(section);
+		chunk.analyse();
+		return new Line(chunk);
+	}
+
+	/**
+	 * Patch the label fields of a one-pass run and write the object code.
+	 * Labels are resolved as the second pass resolves them, and the first error
+	 * in statement order is reported, so both engines give the same result.
+	 */
+	void backpatch() throws AssemblerException {
+		var error = encodeError;
+		var errorIndex = error == null ? recordCount : encodeErrorIndex;
+		var errorLine = 0;
+
+		// Fixups of the failed statement come from fields before the one that failed
+		for (Fixup fixup : fixups) {
+			if (fixup.index > errorIndex) {
+				break;
+			}
+
+			try {
+				var slot = fixup.slot;
+				fixup.binary.or(slot.getOffset(), labelValue(fixup.term, fixup.nextAddress), slot.getWidth());
+			} catch (AssemblerException e) {
+				error = e;
+				errorIndex = fixup.index;
+				errorLine = fixup.lineNumber;
+				break;
+			}
+		}
+
+		for (Fixup fixup : fixups) {
+			if (fixup.index >= errorIndex) {
+				break;
+			}
+
+			if (records[fixup.index] == null) {
+				records[fixup.index] = toUnits(fixup.binary);
+			}
+		}
+
+		for (var i = 0; i < errorIndex; i++) {
+			write(addresses[i], records[i]);
+		}
+
+		if (error != null) {
+			throw fail(errorLine != 0 ? errorLine : encodeErrorLine, error);
+		}
+	}
+
+	private void checkBits(String assemblyTerm, String field, int binaryLength, int bits) throws AssemblerException {
+		if (binaryLength > bits) {
+			var error = "Bit representation of \"" + assemblyTerm + "\" exceeds expected number of bits (" + bits
+					+ ")\nfor instruction field \"" + field + "\".";
+			throw new AssemblerException(error);
+		}
+	}
+
+	/**
+	 * Enter a label or section header of the first pass, rebased to the address
+	 * of its range.
+	 *
+	 * @throws AssemblerException if the label or section is already declared.
+	 */
+	private void define(Definition definition, int base) throws AssemblerException {
+		var name = definition.name;
+
+		if (definition.section) {
+			if (!sections.add(name)) {
+				throw new AssemblerException(name + " section already declared.");
+			}
+		} else if (symbolTable.get(name) == SymbolTable.MISSING && dataTable.get(name) == SymbolTable.MISSING) {
+			(definition.data ? dataTable : symbolTable).put(name, base + definition.offset);
+		} else {
+			throw new AssemblerException("\"" + name + "\" already exists in symbol table.");
+		}
+	}
+
+	/**
+	 * Encode a statement as soon as the first pass finds it, when backpatching.
+	 * Label fields of labels not defined yet are left zero and recorded as
+	 * fixups.
+	 *
+	 * @param address - Address of the statement.
+	 * @param size    - Size of the statement in minimum addressable units.
+	 */
+	private void emit(Statement statement, int address, int size) {
+		var index = recordCount++;
+
+		if (recordCount == addresses.length) {
+			addresses = Arrays.copyOf(addresses, addresses.length * 2);
+			records = Arrays.copyOf(records, addresses.length);
+		}
+
+		addresses[index] = address;
+
+		// Statements after an error are never written
+		if (encodeError != null) {
+			return;
+		}
+
+		try {
+			if (statement.getError() != null) {
+				throw statement.getError();
+			}
+
+			if (statement instanceof DataStatement) {
+				records[index] = toUnits(((DataStatement) statement).getPayload());
+			} else {
+				var pending = fixups.size();
+				var binary = encodeInstruction((InstructionStatement) statement, address + size, index);
+
+				if (fixups.size() == pending) {
+					records[index] = toUnits(binary);
+				}
+			}
+		} catch (AssemblerException e) {
+			encodeError = e;
+			encodeErrorIndex = index;
+			encodeErrorLine = statement.getLineNumber();
+		}
+	}
+
+	private BitVector encodeData(DataLine dataLine) throws AssemblerException {
+		var minAdrUnit = spec.getMinAdrUnit();
+		var binary = new BitVector();
+
+		if (dataLine.ascii != null) {
+			var asciiData = dataLine.ascii;
+
+			for (var i = 0; i < asciiData.length(); i++) {
+				var character = asciiData.charAt(i);
+				binary.appendPadded(character, Assembler.bitLength(character), 8);
+			}
+		} else if (dataLine.integer != null) {
+			var integer = dataLine.integer;
+			int value;
+
+			try {
+				value = Integer.parseInt(integer);
+			} catch (NumberFormatException e) {
+				throw new AssemblerException("\"" + integer + "\" is not a valid integer.");
+			}
+
+			var noOfBits = dataLine.noOfMinAdrUnits * minAdrUnit;
+
+			if (Assembler.bitLength(value) > noOfBits) {
+				throw new AssemblerException("\"" + integer + "\" exceeds expected bits.");
+			}
+
+			binary.appendPadded(value, Assembler.bitLength(value), noOfBits);
+		} else {
+			binary.appendZeros(minAdrUnit * dataLine.noOfMinAdrUnits);
+		}
+
+		return binary;
+	}
+
+	/**
+	 * Encode an instruction, resolving its label operands.
+	 *
+	 * @param statement   - Instruction to encode.
+	 * @param nextAddress - Address of the following statement, relative jumps
+	 *                    are taken from it.
+	 * @param index       - Index of the statement when backpatching, labels not
+	 *                    defined yet are recorded as fixups. -1 to report them
+	 *                    as not found.
+	 */
+	private BitVector encodeInstruction(InstructionStatement statement, int nextAddress, int index)
+			throws AssemblerException {
+		var template = statement.getTemplate();
+		var assemblyTerms = statement.getTerms();
+		var termTypes = statement.getTermTypes();
+		var binary = template.newInstruction();
+
+		for (OperandSlot slot : template.getSlots()) {
+			var assemblyTerm = assemblyTerms[slot.getTerm()];
+			var type = termTypes[slot.getTerm()];
+			var field = slot.getField();
+			var bits = slot.getWidth();
+			long value;
+			int binaryLength;
+
+			var register = instructionSet.register(assemblyTerm);
+
+			if (register != null) {
+				checkBits(assemblyTerm, field, register.length(), bits);
+				value = Long.parseLong(register, 2);
+				binaryLength = register.length();
+			} else if (type != null) {
+				if (type.equals("INT")) {
+					int i;
+
+					try {
+						i = Integer.parseInt(assemblyTerm);
+					} catch (NumberFormatException e) {
+						throw new AssemblerException("\"" + assemblyTerm + "\" is not a valid integer.");
+					}
+
+					value = i & 0xFFFFFFFFL;
+					binaryLength = Assembler.bitLength(i);
+				} else if (type.equals("HEX")) {
+					try {
+						value = Long.parseLong(assemblyTerm, 16);
+					} catch (NumberFormatException e) {
+						throw new AssemblerException("\"" + assemblyTerm + "\" is not a valid hex number.");
+					}
+
+					binaryLength = value < 0 ? Long.SIZE : Math.max(1, Long.SIZE - Long.numberOfLeadingZeros(value));
+				} else if (index >= 0 && symbolTable.get(assemblyTerm) == SymbolTable.MISSING
+						&& dataTable.get(assemblyTerm) == SymbolTable.MISSING) {
+					fixups.add(new Fixup(binary, index, statement.getLineNumber(), nextAddress, slot, assemblyTerm));
+					continue;
+				} else {
+					value = labelValue(assemblyTerm, nextAddress);
+					binaryLength = Math.min(bits, Integer.SIZE);
+				}
+			} else {
+				throw new AssemblerException("Encoding data for \"" + assemblyTerm + "\" (for instrucution field \""
+						+ field + "\") not found.\nIf term is a register, make sure it is defined as \"" + assemblyTerm
+						+ "\" in registers (i.e., " + assemblyTerm
+						+ " 001B).\nIf term is an INT etc, make sure it is specified as so in assemblyOpTree (i.e., immediate : INT).");
+			}
+
+			checkBits(assemblyTerm, field, binaryLength, bits);
+			binary.or(slot.getOffset(), value, bits);
+		}
+
+		return binary;
+	}
+
+	/**
+	 * The record of a statement of {@link #reassemble(Map, Map)}: the one kept
+	 * by its line, unless it was encoded from another of the line's encodings
+	 * or a label operand resolves to another value since.
+	 */
+	private byte[] encodeLine(Line line, Statement statement, int nextAddress) throws AssemblerException {
+		if (statement.getError() != null) {
+			throw statement.getError();
+		}
+
+		var data = statement instanceof DataStatement;
+		var values = data ? new long[0] : labelValues((InstructionStatement) statement, nextAddress);
+
+		if (line.encoded == statement && values != null && Arrays.equals(values, line.labelValues)) {
+			return line.record;
+		}
+
+		var binary = data ? ((DataStatement) statement).getPayload()
+				: encodeInstruction((InstructionStatement) statement, nextAddress, -1);
+		encodedStatements++;
+		line.encoded = statement;
+		line.labelValues = values;
+		line.record = toUnits(binary);
+		return line.record;
+	}
+
+	/**
+	 * Encode a statement of the first pass, resolving its label operands.
+	 *
+	 * @param index - Index of the statement.
+	 */
+	private BitVector encodeStatement(int index) throws AssemblerException {
+		var statement = statements.get(index);
+
+		if (statement.getError() != null) {
+			throw statement.getError();
+		}
+
+		if (statement instanceof DataStatement) {
+			return ((DataStatement) statement).getPayload();
+		}
+
+		log.debug("*****************************");
+		if (log.isDebugEnabled()) {
+			log.debug(lexer.tokenize(assemblyCode.get(statement.getLineNumber() - 1)).content());
+		}
+
+		return encodeInstruction((InstructionStatement) statement, addresses[index + 1], -1);
+	}
+
+	/**
+	 * Report an error of a source line in the object code.
+	 *
+	 * @return The error, to be thrown.
+	 */
+	private AssemblerException fail(int lineNumber, AssemblerException e) {
+		// The line is read again, statements do not keep their source text
+		var source = lexer.tokenize(assemblyCode.get(lineNumber - 1)).content();
+		report(e, getErrorMessage(lineNumber, source, e.getMessage()));
+		return e;
+	}
+
+	/**
+	 * Whether the chosen encoding of an instruction fits at the current
+	 * addresses: relative jumps to .text labels as signed fields, .data
+	 * addresses as unsigned fields, and every other operand as the second pass
+	 * checks it.
+	 */
+	private boolean fits(Relaxable relaxable, BranchRelaxation relaxation) {
+		var candidate = relaxable.candidates[relaxable.choice];
+		var index = relaxable.index;
+		var size = candidate.getTemplate().getWidth() / spec.getMinAdrUnit();
+		// Labels after the instruction move with its size
+		var shift = size - (relaxation.address(index + 1) - relaxation.address(index));
+		var nextAddress = relaxation.address(index) + size;
+
+		for (OperandSlot slot : candidate.getTemplate().getSlots()) {
+			var term = candidate.getTerms()[slot.getTerm()];
+			var bits = slot.getWidth();
+
+			if (!"LABEL".equals(candidate.getTermTypes()[slot.getTerm()]) || bits >= Integer.SIZE) {
+				continue;
+			}
+
+			var text = symbolTable.get(term);
+			var data = dataTable.get(term);
+
+			if (text != SymbolTable.MISSING) {
+				long jump = relaxation.labelAddress(text) + (text > addresses[index] ? shift : 0) - nextAddress;
+
+				if (jump < -(1L << bits - 1) || jump >= 1L << bits - 1) {
+					return false;
+				}
+			} else if (data != SymbolTable.MISSING) {
+				long address = relaxation.labelAddress(data) + (data > addresses[index] ? shift : 0);
+
+				if (address >= 1L << bits) {
+					return false;
+				}
+			}
+		}
+
+		try {
+			encodeInstruction(candidate, nextAddress, -1);
+			return true;
+		} catch (AssemblerException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Size every statement, assign addresses and build the symbol tables.
+	 * <p>
+	 * With {@link AssemblerOptions#isParallel()} the source is split into ranges
+	 * of {@link AssemblerOptions#getChunkSize()} lines analysed on a
+	 * ForkJoinPool: a quick scan for section headers tells each range which
+	 * section it starts in, then the ranges are analysed with addresses
+	 * relative to their start. The ranges are merged in order, a running sum of
+	 * their sizes giving the base address of each.
+	 */
+	void firstPass() throws AssemblerException {
+		var lineCount = assemblyCode.size();
+		List<FirstPassChunk> chunks = new ArrayList<>();
+
+		if (!options.isParallel() || lineCount <= options.getChunkSize()) {
+			var chunk = new FirstPassChunk(assemblyCode, 0, lineCount);
+			chunk.analyse();
+			chunks.add(chunk);
+		} else {
+			for (var from = 0; from < lineCount; from += options.getChunkSize()) {
+				chunks.add(new FirstPassChunk(assemblyCode, from, Math.min(from + options.getChunkSize(), lineCount)));
+			}
+
+			invokeAll(chunks, FirstPassChunk::scanSections);
+
+			String section = null;
+
+			for (FirstPassChunk chunk : chunks) {
+				chunk.atData = ".data".equals(section);
+				chunk.atText = ".text".equals(section);
+
+				if (chunk.lastSection != null) {
+					section = chunk.lastSection;
+				}
+			}
+
+			invokeAll(chunks, FirstPassChunk::analyse);
+		}
+
+		var statementCount = 0;
+		var dataLabels = 0;
+		var textLabels = 0;
+
+		for (FirstPassChunk chunk : chunks) {
+			statementCount += chunk.statements.size();
+
+			for (Definition definition : chunk.definitions) {
+				if (definition.data) {
+					dataLabels++;
+				} else if (!definition.section) {
+					textLabels++;
+				}
+			}
+		}
+
+		addresses = new int[statementCount + 1];
+		dataTable = new SymbolTable(dataLabels);
+		symbolTable = new SymbolTable(textLabels);
+
+		var base = 0;
+
+		for (FirstPassChunk chunk : chunks) {
+			for (Definition definition : chunk.definitions) {
+				try {
+					define(definition, base);
+				} catch (AssemblerException e) {
+					throw fail(definition.lineNumber, e);
+				}
+			}
+
+			if (chunk.error != null) {
+				throw fail(chunk.errorLine, chunk.error);
+			}
+
+			for (Relaxable relaxable : chunk.relaxables) {
+				relaxable.index += statements.size();
+				relaxables.add(relaxable);
+			}
+
+			for (var i = 0; i < chunk.statements.size(); i++) {
+				addresses[statements.size()] = base + chunk.offsets[i];
+				statements.add(chunk.statements.get(i));
+			}
+
+			if (stats != null) {
+				stats.formatCandidates += chunk.formatCandidates;
+				stats.grammarPaths += chunk.grammarPaths;
+				stats.instructions += chunk.instructions;
+			}
+
+			base += chunk.locationCounter;
+		}
+
+		if (stats != null) {
+			stats.statements += statements.size();
+			stats.symbols += symbolTable.size() + dataTable.size();
+		}
+
+		// to account for last line
+		addresses[statements.size()] = base;
+
+		if (!relaxables.isEmpty()) {
+			relax();
+		}
+	}
+
+	private String getAssemblyOperand(List<String> path) {
+		var operand = path.get(path.size() - 1);
+		return operand.indexOf('"') < 0 ? operand : operand.replace("\"", "");
+	}
+
+	private String getErrorMessage(int lineCounter, String assemblyLine, String message) {
+		var msg = new StringBuilder("------------------------------------------\n");
+		msg.append("Exception at line ").append(lineCounter).append(" :\n");
+		msg.append("\n");
+		msg.append(assemblyLine).append("\n");
+		msg.append("------------------------------------------\n");
+		msg.append("\n");
+		msg.append(message).append("\n\n");
+
+		return msg.toString();
+	}
+
+	private CompiledMnemonic getMnemData(TokenLine assemblyLine) throws AssemblerException {
+		for (var i = 0; i < assemblyLine.size(); i++) {
+			if (assemblyLine.is(i, TokenLine.MNEMONIC)) {
+				return instructionSet.mnemonic(assemblyLine.getLine(), assemblyLine.start(i), assemblyLine.end(i));
+			}
+		}
+
+		return null;
+	}
+
+	/** Run a task on the pool chosen by the options. */
+	private void invoke(ForkJoinTask<?> task) {
+		if (options.getParallelism() > 0) {
+			var pool = new ForkJoinPool(options.getParallelism());
+			try {
+				pool.invoke(task);
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			ForkJoinPool.commonPool().invoke(task);
+		}
+	}
+
+	/** Run an action for every chunk in parallel. */
+	private <T> void invokeAll(List<T> chunks, Consumer<T> action) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+
+		for (T chunk : chunks) {
+			tasks.add(ForkJoinTask.adapt(() -> action.accept(chunk)));
+		}
+
+		invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+	}
+
+	/**
+	 * The value of a label operand: the jump from the next statement to a .text
+	 * label, or the address of a .data label.
+	 *
+	 * @throws AssemblerException if the label is not declared.
+	 */
+	private long labelValue(String assemblyTerm, int nextAddress) throws AssemblerException {
+		var destination = symbolTable.get(assemblyTerm);
+
+		if (destination != SymbolTable.MISSING) {
+			var jump = destination - nextAddress;
+			return jump & 0xFFFFFFFFL;
+		}
+
+		var address = dataTable.get(assemblyTerm);
+
+		if (address == SymbolTable.MISSING) {
+			throw new AssemblerException("Label \"" + assemblyTerm + " \" not found.");
+		}
+
+		return address;
+	}
+
+	/**
+	 * The value of every operand slot of an instruction that holds a label, as
+	 * {@link #encodeInstruction(InstructionStatement, int, int)} resolves it.
+	 *
+	 * @return The values by slot, 0 for other slots, or null if a label is not
+	 *         declared.
+	 */
+	private long[] labelValues(InstructionStatement statement, int nextAddress) {
+		var slots = statement.getTemplate().getSlots();
+		var values = new long[slots.size()];
+
+		for (var i = 0; i < values.length; i++) {
+			var term = statement.getTerms()[slots.get(i).getTerm()];
+			var type = statement.getTermTypes()[slots.get(i).getTerm()];
+
+			if (type == null || type.equals("INT") || type.equals("HEX") || instructionSet.register(term) != null) {
+				continue;
+			}
+
+			var destination = symbolTable.get(term);
+			var address = dataTable.get(term);
+
+			if (destination != SymbolTable.MISSING) {
+				values[i] = destination - nextAddress & 0xFFFFFFFFL;
+			} else if (address != SymbolTable.MISSING) {
+				values[i] = address;
+			} else {
+				return null;
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Read, size and encode the source in a single pass, leaving the label
+	 * fields of forward references to {@link #backpatch()}. Statements are not
+	 * kept once encoded, so instructions are not relaxed: a line is encoded in
+	 * the first operand format it fits. The pass is sequential, see
+	 * {@link AssemblerOptions#isOnePass()}.
+	 */
+	void onePass() throws AssemblerException {
+		var chunk = new FirstPassChunk(assemblyCode, 0, assemblyCode.size());
+		chunk.backpatching = true;
+		addresses = new int[16];
+		records = new byte[16][];
+		chunk.analyse();
+
+		if (stats != null) {
+			stats.formatCandidates += chunk.formatCandidates;
+			stats.grammarPaths += chunk.grammarPaths;
+			stats.instructions += chunk.instructions;
+			stats.statements += recordCount;
+			stats.symbols += symbolTable.size() + dataTable.size();
+		}
+
+		if (chunk.error != null) {
+			throw fail(chunk.errorLine, chunk.error);
+		}
+
+		// to account for last line
+		addresses[recordCount] = chunk.locationCounter;
+	}
+
+	/**
+	 * Parse a line of the .data section.
+	 *
+	 * @throws AssemblerException if the line is not a valid data line.
+	 */
+	private DataLine parseDataLine(TokenLine assemblyLine) throws AssemblerException {
+		var dataLine = new DataLine();
+		var line = assemblyLine.getLine();
+		var size = assemblyLine.size();
+
+		if (size >= 2 && Lexer.isAlphaNumeric(line, assemblyLine.rawStart(0), assemblyLine.rawEnd(0))
+				&& assemblyLine.rawEnd(0) > assemblyLine.rawStart(0)) {
+			dataLine.label = assemblyLine.rawText(0);
+			var unitStart = assemblyLine.rawStart(1);
+			var unitEnd = assemblyLine.rawEnd(1);
+			var digitsEnd = unitEnd - 3;
+
+			if (size >= 3 && unitEnd - unitStart == 6 && line.startsWith("ascii", unitStart + 1)
+					&& line.charAt(assemblyLine.rawStart(2)) == '"') {
+				// The text runs to the last quote of the line
+				var textStart = assemblyLine.rawStart(2);
+				var textEnd = assemblyLine.getContentEnd();
+
+				if (textEnd - textStart >= 3 && line.charAt(textEnd - 1) == '"') {
+					dataLine.ascii = line.substring(textStart + 1, textEnd - 1);
+					return dataLine;
+				}
+			} else if (size <= 3 && digitsEnd > unitStart && line.startsWith("MAU", digitsEnd)
+					&& Lexer.isNumeric(line, unitStart, digitsEnd)) {
+				try {
+					dataLine.noOfMinAdrUnits = Integer.parseInt(line.substring(unitStart, digitsEnd));
+				} catch (NumberFormatException e) {
+					throw new AssemblerException("\"" + line.substring(unitStart, unitEnd) + "\" is not a valid size.");
+				}
+
+				if (size == 2) {
+					return dataLine;
+				}
+
+				dataLine.integer = assemblyLine.rawText(2);
+
+				if (dataLine.integer.chars().noneMatch(c -> c <= ' ')) {
+					return dataLine;
+				}
+			}
+		}
+
+		throw new AssemblerException(".data line incorrect syntax.");
+	}
+
+	/**
+	 * Both passes of an {@link IncrementalAssembler} run. A line is taken from
+	 * the last run if one of the same text was analysed in the same section,
+	 * and only parsed otherwise. Addresses, symbol tables and relaxation are
+	 * worked out again for the whole source from the sizes of its lines, which
+	 * is cheap, and a statement is only encoded again when it is new or its
+	 * label operands resolve to other values, see
+	 * {@link #encodeLine(Line, Statement, int)}. Errors are found and records
+	 * written as by {@link #firstPass()} and {@link #secondPass()}, the run is
+	 * sequential.
+	 *
+	 * @param previous - Lines of the last run, by section and text.
+	 * @param next     - Receives the lines of this run, by section and text.
+	 */
+	void reassemble(Map<String, Line> previous, Map<String, Line> next) throws AssemblerException {
+		var lineCount = assemblyCode.size();
+		var lines = new Line[lineCount];
+		String section = null;
+		var statementCount = 0;
+
+		for (var i = 0; i < lineCount; i++) {
+			var key = (section == null ? "" : section) + "\n" + assemblyCode.get(i);
+			var line = next.get(key);
+
+			if (line == null) {
+				line = previous.get(key);
+			}
+
+			if (line == null) {
+				line = analyse(i, section);
+				analysedLines++;
+			}
+
+			next.put(key, line);
+			lines[i] = line;
+			section = line.section;
+
+			if (line.statement != null) {
+				statementCount++;
+			}
+
+			// The first pass stops at the first error
+			if (line.error != null) {
+				break;
+			}
+		}
+
+		addresses = new int[statementCount + 1];
+		var statementLines = new Line[statementCount];
+		var lineNumbers = new int[statementCount];
+		var address = 0;
+
+		for (var i = 0; i < lineCount && lines[i] != null; i++) {
+			var line = lines[i];
+
+			if (line.definition != null) {
+				try {
+					define(line.definition, address);
+				} catch (AssemblerException e) {
+					throw fail(i + 1, e);
+				}
+			}
+
+			if (line.error != null) {
+				throw fail(i + 1, line.error);
+			}
+
+			if (line.statement != null) {
+				var index = statements.size();
+
+				if (line.candidates != null) {
+					relaxables.add(new Relaxable(index, line.candidates));
+				}
+
+				addresses[index] = address;
+				statementLines[index] = line;
+				lineNumbers[index] = i + 1;
+				statements.add(line.statement);
+				address += line.size;
+			}
+		}
+
+		// to account for last line
+		addresses[statements.size()] = address;
+
+		if (!relaxables.isEmpty()) {
+			relax();
+		}
+
+		for (var i = 0; i < statements.size(); i++) {
+			byte[] units;
+
+			try {
+				units = encodeLine(statementLines[i], statements.get(i), addresses[i + 1]);
+			} catch (AssemblerException e) {
+				throw fail(lineNumbers[i], e);
+			}
+
+			write(addresses[i], units);
+		}
+	}
+
+	/**
+	 * Choose the smallest encoding of every instruction with a choice whose
+	 * label fields fit, and move the statements and labels after those that
+	 * grow. Only instructions with a choice are sized again, see
+	 * {@link BranchRelaxation}.
+	 */
+	private void relax() {
+		var relaxation = new BranchRelaxation(addresses);
+		var minAdrUnit = spec.getMinAdrUnit();
+
+		for (Relaxable relaxable : relaxables) {
+			var index = relaxable.index;
+			var from = Integer.MAX_VALUE;
+			var to = 0;
+
+			for (InstructionStatement candidate : relaxable.candidates) {
+				for (var i = 0; i < candidate.getTerms().length; i++) {
+					if (!"LABEL".equals(candidate.getTermTypes()[i])) {
+						continue;
+					}
+
+					var text = symbolTable.get(candidate.getTerms()[i]);
+					var data = dataTable.get(candidate.getTerms()[i]);
+
+					if (text != SymbolTable.MISSING) {
+						var target = relaxation.statementAt(text);
+						from = Math.min(from, target > index ? index + 1 : target);
+						to = Math.max(to, target > index ? target : index + 1);
+					} else if (data != SymbolTable.MISSING) {
+						from = 0;
+						to = Math.max(to, relaxation.statementAt(data));
+					}
+				}
+			}
+
+			relaxation.add(index, relaxable.candidates[0].getTemplate().getWidth() / minAdrUnit, Math.min(from, to),
+					to);
+		}
+
+		relaxation.run(id -> {
+			var relaxable = relaxables.get(id);
+
+			while (relaxable.choice < relaxable.candidates.length - 1 && !fits(relaxable, relaxation)) {
+				relaxable.choice++;
+			}
+
+			return relaxable.candidates[relaxable.choice].getTemplate().getWidth() / minAdrUnit;
+		});
+
+		for (Relaxable relaxable : relaxables) {
+			statements.set(relaxable.index, relaxable.candidates[relaxable.choice]);
+		}
+
+		symbolTable.remap(relaxation::labelAddress);
+		dataTable.remap(relaxation::labelAddress);
+		addresses = relaxation.relaxedAddresses();
+	}
+
+	/** Pass an error report to the sink. */
+	private void report(AssemblerException e, String message) {
+		try {
+			sink.error(message);
+		} catch (IOException io) {
+			e.addSuppressed(io);
+		}
+	}
+
+	/**
+	 * Assemble the source to the sink.
+	 *
+	 * @throws AssemblerException if the source has an error, after it is passed
+	 *                            to the sink.
+	 */
+	void run() throws AssemblerException {
+		try {
+			sink.open(spec.getMinAdrUnit(), spec.getEndian());
+		} catch (IOException e) {
+			throw new AssemblerException("Could not write object code: " + e.getMessage(), e);
+		}
+
+		var onePass = options.isOnePass();
+
+		if (stats == null) {
+			if (onePass) {
+				onePass();
+				backpatch();
+			} else {
+				firstPass();
+				secondPass();
+			}
+			return;
+		}
+
+		stats.lines += assemblyCode.size();
+		stats.runs++;
+
+		var start = System.nanoTime();
+
+		try {
+			if (onePass) {
+				onePass();
+			} else {
+				firstPass();
+			}
+		} finally {
+			stats.firstPassNanos += System.nanoTime() - start;
+		}
+
+		start = System.nanoTime();
+
+		try {
+			if (onePass) {
+				backpatch();
+			} else {
+				secondPass();
+			}
+		} finally {
+			stats.secondPassNanos += System.nanoTime() - start;
+			stats.bytesEmitted += bytesEmitted;
+		}
+	}
+
+	/**
+	 * Encode the statements of the first pass. Only label operands are left to
+	 * resolve, the source is not parsed again.
+	 * <p>
+	 * The symbol and address tables are fixed by now, so with
+	 * {@link AssemblerOptions#isParallel()} the statements are encoded in chunks
+	 * on a ForkJoinPool. Records are written in address order either way.
+	 */
+	void secondPass() throws AssemblerException {
+		if (!options.isParallel() || statements.size() <= options.getChunkSize()) {
+			for (var i = 0; i < statements.size(); i++) {
+				byte[] units;
+
+				try {
+					units = toUnits(encodeStatement(i));
+				} catch (AssemblerException e) {
+					throw fail(statements.get(i).getLineNumber(), e);
+				}
+
+				write(addresses[i], units);
+			}
+			return;
+		}
+
+		var records = new byte[statements.size()][];
+		var task = new EncodeTask(records, 0, records.length);
+		invoke(task);
+
+		var encoded = task.error == null ? records.length : task.failedAt;
+
+		for (var i = 0; i < encoded; i++) {
+			write(addresses[i], records[i]);
+		}
+
+		if (task.error != null) {
+			var statement = statements.get(task.failedAt);
+			throw fail(statement.getLineNumber(), task.error);
+		}
+	}
+
+	/**
+	 * The units of an encoded statement in address order, see
+	 * {@link ObjectCodeSink}.
+	 */
+	private byte[] toUnits(BitVector binary) {
+		var minAdrUnit = spec.getMinAdrUnit();
+		var unitBytes = ObjectCodeSink.unitBytes(minAdrUnit);
+		var noOfUnits = binary.unitCount(minAdrUnit);
+		var big = spec.getEndian().equals("big");
+
+		if (!big && !spec.getEndian().equals("little")) {
+			return new byte[0];
+		}
+
+		var units = new byte[noOfUnits * unitBytes];
+
+		for (var i = 0; i < noOfUnits; i++) {
+			var unit = binary.unit(big ? i : noOfUnits - 1 - i, minAdrUnit);
+			var end = (i + 1) * unitBytes;
+
+			for (var b = 1; b <= unitBytes; b++) {
+				units[end - b] = (byte) unit;
+				unit >>>= 8;
+			}
+		}
+
+		return units;
+	}
+
+	private void write(int address, byte[] units) throws AssemblerException {
+		try {
+			sink.write(address, units);
+			bytesEmitted += units.length;
+		} catch (IOException e) {
+			throw new AssemblerException("Could not write object code: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package dk.sar.gasm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.sar.gasm.output.ObjectCodeSink;
+import lombok.Getter;
+
+/**
+ * Timings and counters of assembly runs, collected when passed to
+ * {@link Assembler#assemble(List, ObjectCodeSink, AssemblyStats)}. Runs
+ * without stats only pay for a few counter increments per line.
+ * <p>
+ * Stats of several runs, i.e. the files of a batch, are summed with
+ * {@link #add(AssemblyStats)}. A stats object is not thread-safe, give every
+ * run its own.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public class AssemblyStats {
+	/** Bytes written to the sink. */
+	long bytesEmitted;
+	/** Time of the first pass, or of the single pass of a one-pass run. */
+	long firstPassNanos;
+	/** Operand formats of the mnemonics checked against the matched lines. */
+	long formatCandidates;
+	/** (token, element) derivations of the assemblyOpTree explored by the matcher. */
+	long grammarPaths;
+	/** Instructions of the .text section. */
+	long instructions;
+	/** Source lines, blank lines and comments included. */
+	long lines;
+	/** Time of the second pass, or of the backpatching of a one-pass run. */
+	long secondPassNanos;
+	/** Assembly runs summed. */
+	int runs;
+	long specLoadNanos;
+	/** Statements of the .data and .text sections. */
+	long statements;
+	/** Labels of the .data and .text sections. */
+	long symbols;
+
+	/** Add the stats of another run. */
+	public void add(AssemblyStats other) {
+		bytesEmitted += other.bytesEmitted;
+		firstPassNanos += other.firstPassNanos;
+		formatCandidates += other.formatCandidates;
+		grammarPaths += other.grammarPaths;
+		instructions += other.instructions;
+		lines += other.lines;
+		runs += other.runs;
+		secondPassNanos += other.secondPassNanos;
+		specLoadNanos += other.specLoadNanos;
+		statements += other.statements;
+		symbols += other.symbols;
+	}
+
+	/** Operand formats checked per instruction. */
+	public double getFormatCandidatesPerLine() {
+		return instructions == 0 ? 0 : (double) formatCandidates / instructions;
+	}
+
+	/** assemblyOpTree derivations explored per instruction. */
+	public double getGrammarPathsPerLine() {
+		return instructions == 0 ? 0 : (double) grammarPaths / instructions;
+	}
+
+	/** Source lines per second of both passes. */
+	public double getLinesPerSecond() {
+		var nanos = firstPassNanos + secondPassNanos;
+		return nanos == 0 ? 0 : lines * 1e9 / nanos;
+	}
+
+	/** The stats as lines of text, as shown by {@code --stats}. */
+	public List<String> report() {
+		List<String> report = new ArrayList<>();
+
+		report.add(String.format("Spec load: %.3f ms", specLoadNanos / 1e6));
+		report.add(String.format("First pass: %.3f ms, second pass: %.3f ms", firstPassNanos / 1e6,
+				secondPassNanos / 1e6));
+		report.add(String.format("Lines: %d (%d statements, %d instructions), %.0f lines/s", lines, statements,
+				instructions, getLinesPerSecond()));
+		report.add(String.format("Grammar paths explored: %d (%.2f per instruction)", grammarPaths,
+				getGrammarPathsPerLine()));
+		report.add(String.format("Operand format candidates tried: %d (%.2f per instruction)", formatCandidates,
+				getFormatCandidatesPerLine()));
+		report.add("Symbol table: " + symbols + " labels");
+		report.add("Bytes emitted: " + bytesEmitted);
+
+		return report;
+	}
+
+	public void setSpecLoadNanos(long specLoadNanos) {
+		this.specLoadNanos = specLoadNanos;
+	}
+}
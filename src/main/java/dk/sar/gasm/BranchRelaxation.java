@@ -0,0 +1,225 @@
+package dk.sar.gasm;
+
+import java.util.Arrays;
+
+/**
+ * Grows instructions that can be encoded in more than one size until their
+ * label fields fit, see {@link AssemblerOptions#isRelax()}.
+ * <p>
+ * Every relaxable instruction starts at its smallest encoding and is checked
+ * once. When one grows, only the instructions whose displacement spans it are
+ * checked again, until none is left to check. Instructions never shrink, so
+ * this terminates. The growth of each statement is kept in a Fenwick tree, so
+ * the current address of a statement is its first-pass address plus a prefix
+ * sum. The statements each instruction depends on form a range of statement
+ * indices that does not change as addresses do, and the ranges are kept in a
+ * segment tree to find those spanning a statement.
+ *
+ * @author Eddie Graham
+ */
+final class BranchRelaxation {
+	/** Sizes a relaxable instruction at the current addresses. */
+	interface Sizer {
+		/**
+		 * @param id - Instruction, as returned by {@link BranchRelaxation#add}.
+		 * @return Its size, never less than its size so far.
+		 */
+		int size(int id);
+	}
+
+	/** First-pass address of every statement, and of the end. */
+	private final int[] addresses;
+	private int count;
+	/** Growth of the statements, a Fenwick tree indexed from 1. */
+	private final int[] growth;
+	/** Statements each instruction depends on, from lo (inclusive) to hi. */
+	private int[] hi = new int[16];
+	private int[] lo = new int[16];
+	private int[] sizes = new int[16];
+	private int[] statements = new int[16];
+
+	/**
+	 * @param addresses - Address of every statement followed by the address
+	 *                  after the last, as the first pass gives them. Not
+	 *                  changed.
+	 */
+	BranchRelaxation(int[] addresses) {
+		this.addresses = addresses.clone();
+		growth = new int[addresses.length + 1];
+	}
+
+	/**
+	 * Add a relaxable instruction, in statement order.
+	 *
+	 * @param statement - Index of the instruction.
+	 * @param size      - Size of its smallest encoding.
+	 * @param from      - First statement whose size changes the displacements
+	 *                  of its label fields.
+	 * @param to        - Statement after the last one.
+	 * @return Id of the instruction.
+	 */
+	int add(int statement, int size, int from, int to) {
+		if (count == statements.length) {
+			hi = Arrays.copyOf(hi, count * 2);
+			lo = Arrays.copyOf(lo, count * 2);
+			sizes = Arrays.copyOf(sizes, count * 2);
+			statements = Arrays.copyOf(statements, count * 2);
+		}
+
+		statements[count] = statement;
+		sizes[count] = size;
+		lo[count] = from;
+		hi[count] = to;
+		return count++;
+	}
+
+	/** Current address of a statement, or of the end for the statement count. */
+	int address(int statement) {
+		var address = addresses[statement];
+
+		for (var i = statement; i > 0; i -= i & -i) {
+			address += growth[i];
+		}
+
+		return address;
+	}
+
+	/**
+	 * Visit the segment tree nodes covering the range of an instruction:
+	 * counting them in {@code next[node + 1]} when ids is null, else storing
+	 * the id at {@code ids[next[node]++]}.
+	 */
+	private void cover(int id, int leaves, int[] next, int[] ids) {
+		var l = lo[id] + leaves;
+		var r = Math.min(hi[id], leaves) + leaves;
+
+		for (; l < r; l >>= 1, r >>= 1) {
+			if ((l & 1) == 1) {
+				visit(l++, id, next, ids);
+			}
+			if ((r & 1) == 1) {
+				visit(--r, id, next, ids);
+			}
+		}
+	}
+
+	/** Current address of a label, given its first-pass address. */
+	int labelAddress(int address) {
+		var statement = statementAt(address);
+		return address - addresses[statement] + address(statement);
+	}
+
+	/** Current addresses of every statement and of the end. */
+	int[] relaxedAddresses() {
+		var relaxed = new int[addresses.length];
+
+		for (var i = 0; i < relaxed.length; i++) {
+			relaxed[i] = address(i);
+		}
+
+		return relaxed;
+	}
+
+	/**
+	 * Grow the instructions to a fixpoint.
+	 *
+	 * @param sizer - Sizes an instruction at the current addresses.
+	 * @return Number of times an instruction grew.
+	 */
+	int run(Sizer sizer) {
+		var leaves = Integer.highestOneBit(Math.max(1, addresses.length - 1)) * 2;
+		var spanning = spanningTree(leaves);
+		var start = spanning[0];
+		var ids = spanning[1];
+
+		var worklist = new int[count];
+		var queued = new boolean[count];
+		var top = 0;
+		var grown = 0;
+
+		for (var id = count - 1; id >= 0; id--) {
+			worklist[top++] = id;
+			queued[id] = true;
+		}
+
+		while (top > 0) {
+			var id = worklist[--top];
+			queued[id] = false;
+
+			var size = sizer.size(id);
+			var delta = size - sizes[id];
+
+			if (delta <= 0) {
+				continue;
+			}
+
+			sizes[id] = size;
+			grown++;
+
+			// Statements after the instruction move
+			for (var i = statements[id] + 1; i < growth.length; i += i & -i) {
+				growth[i] += delta;
+			}
+
+			for (var node = statements[id] + leaves; node > 0; node >>= 1) {
+				for (var i = start[node]; i < start[node + 1]; i++) {
+					if (!queued[ids[i]]) {
+						queued[ids[i]] = true;
+						worklist[top++] = ids[i];
+					}
+				}
+			}
+		}
+
+		return grown;
+	}
+
+	/**
+	 * Segment tree of the ranges of the instructions: the ids of the ranges
+	 * covering node n are ids[start[n]] to ids[start[n + 1]].
+	 */
+	private int[][] spanningTree(int leaves) {
+		var start = new int[2 * leaves + 1];
+
+		for (var id = 0; id < count; id++) {
+			cover(id, leaves, start, null);
+		}
+
+		for (var n = 1; n < start.length; n++) {
+			start[n] += start[n - 1];
+		}
+
+		var ids = new int[start[start.length - 1]];
+		var fill = start.clone();
+
+		for (var id = 0; id < count; id++) {
+			cover(id, leaves, fill, ids);
+		}
+
+		return new int[][] { start, ids };
+	}
+
+	/** Index of the first statement at or after a first-pass address. */
+	int statementAt(int address) {
+		var index = Arrays.binarySearch(addresses, address);
+
+		if (index < 0) {
+			return -index - 1;
+		}
+
+		// Statements of no size share an address, take the first
+		while (index > 0 && addresses[index - 1] == address) {
+			index--;
+		}
+
+		return index;
+	}
+
+	private void visit(int node, int id, int[] next, int[] ids) {
+		if (ids == null) {
+			next[node + 1]++;
+		} else {
+			ids[next[node]++] = id;
+		}
+	}
+}
@@ -3,9 +3,12 @@ package dk.sar.gasm;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 import dk.sar.gasm.data.DataSource;
+import dk.sar.gasm.data.MappedAssemblyCode;
 import dk.sar.gasm.spec.SpecReader;
 import dk.sar.gasm.spec.YamlSpecReader;
 import lombok.Getter;
@@ -18,6 +21,18 @@ import lombok.Getter;
  */
 @SuppressWarnings("deprecation")
 public class FileParser {
+	/**
+	 * Read the lines of an assembly file.
+	 *
+	 * @param assemblyFile
+	 * @param streaming    - Map the file instead of reading its lines onto the
+	 *                     heap, see {@link MappedAssemblyCode}.
+	 * @throws IOException
+	 */
+	public static List<String> readAssemblyCode(Path assemblyFile, boolean streaming) throws IOException {
+		return streaming ? new MappedAssemblyCode(assemblyFile) : Files.readAllLines(assemblyFile);
+	}
+
 	@Getter
 	private DataSource data;
 
@@ -31,10 +46,21 @@ public class FileParser {
 	 * @throws FileParserException
 	 */
 	public FileParser(String specFile, String assemblyFile) throws IOException, FileParserException {
+		this(specFile, assemblyFile, false);
+	}
+
+	/**
+	 * @param specFile
+	 * @param assemblyFile
+	 * @param streaming    - Map the assembly file instead of reading its lines
+	 *                     onto the heap, see {@link MappedAssemblyCode}.
+	 * @throws IOException
+	 * @throws FileParserException
+	 */
+	public FileParser(String specFile, String assemblyFile, boolean streaming) throws IOException, FileParserException {
 		this.data = new DataSource();
 
-		var lines = Files.readAllLines(Paths.get(new File(assemblyFile).getCanonicalPath()));
-		data.setAssemblyCode(lines);
+		data.setAssemblyCode(readAssemblyCode(Paths.get(new File(assemblyFile).getCanonicalPath()), streaming));
 
 		SpecReader reader = new YamlSpecReader(specFile);
 		data.setSpec(reader.getSpecFile());
@@ -0,0 +1,158 @@
+package dk.sar.gasm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.sar.gasm.output.ObjectCodeSink;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * Assembles successive versions of a source, i.e. as it is edited, and gives
+ * the records that changed since the last version.
+ * <p>
+ * The lines, symbol tables and addresses of the last run are kept: a line is
+ * only parsed again when its text or the section it is in changed, and a
+ * statement is only encoded again when it changed or the labels it refers to
+ * moved. Records are then compared by address with those of the last run
+ * that succeeded. Runs are sequential, {@link AssemblerOptions#isOnePass()}
+ * and {@link AssemblerOptions#isParallel()} are ignored. An incremental
+ * assembler is not thread-safe, give every edited source its own.
+ *
+ * @author Eddie Graham
+ */
+public class IncrementalAssembler {
+	/** Records of a run that differ from those of the last run. */
+	@Getter
+	public static final class Delta {
+		/** Lines parsed by the run, the others were taken from the last run. */
+		private final int analysedLines;
+		/** Statements encoded by the run, the others kept their records. */
+		private final int encodedStatements;
+		/** Records of the last run at addresses no record starts at now, in address order. */
+		private final List<Record> removed = new ArrayList<>();
+		/** Records that are new or changed, in address order. */
+		private final List<Record> written = new ArrayList<>();
+
+		private Delta(int analysedLines, int encodedStatements) {
+			this.analysedLines = analysedLines;
+			this.encodedStatements = encodedStatements;
+		}
+	}
+
+	/** Collects the records and error report of a run. */
+	private static final class Output implements ObjectCodeSink {
+		private int[] addresses = new int[16];
+		private int count;
+		private String error;
+		private byte[][] records = new byte[16][];
+
+		@Override
+		public void error(String message) {
+			error = message;
+		}
+
+		@Override
+		public void write(int address, byte[] units) {
+			// Empty records change nothing
+			if (units.length == 0) {
+				return;
+			}
+
+			if (count == addresses.length) {
+				addresses = Arrays.copyOf(addresses, count * 2);
+				records = Arrays.copyOf(records, count * 2);
+			}
+
+			addresses[count] = address;
+			records[count++] = units;
+		}
+	}
+
+	/** A record of the object code, see {@link ObjectCodeSink#write(int, byte[])}. */
+	@Value
+	public static class Record {
+		int address;
+		byte[] units;
+	}
+
+	private final Assembler assembler;
+	/** Error report of the last run, null if it succeeded. */
+	@Getter
+	private String errorReport;
+	/**
+	 * Lines of the last run that succeeded, by section and text, see
+	 * {@link AssemblyJob#reassemble(Map, Map)}.
+	 */
+	private Map<String, AssemblyJob.Line> lines = new HashMap<>();
+	/** Records of the last run that succeeded. */
+	private Output output = new Output();
+
+	/**
+	 * @param assembler - Assembler of the spec and options of every run.
+	 */
+	public IncrementalAssembler(Assembler assembler) {
+		this.assembler = assembler;
+	}
+
+	/**
+	 * Assemble the next version of the source. The first run assembles it all,
+	 * every record is written.
+	 *
+	 * @param assemblyCode - Source lines to assemble.
+	 * @return The records that differ from those of the last run that
+	 *         succeeded.
+	 * @throws AssemblerException if the source has an error, the report is
+	 *                            kept in {@link #getErrorReport()}. The next
+	 *                            delta is still against the last run that
+	 *                            succeeded.
+	 */
+	public Delta assemble(List<String> assemblyCode) throws AssemblerException {
+		var next = new Output();
+		var job = new AssemblyJob(assembler.getSpec(), assembler.getOptions(), assemblyCode, next);
+		Map<String, AssemblyJob.Line> analysed = new HashMap<>();
+
+		try {
+			job.reassemble(lines, analysed);
+		} catch (AssemblerException e) {
+			// The lines of the last run that succeeded are kept, those of a failed run never are
+			errorReport = next.error;
+			throw e;
+		}
+
+		lines = analysed;
+		errorReport = null;
+
+		var delta = new Delta(job.analysedLines, job.encodedStatements);
+		var last = output;
+		var i = 0;
+		var j = 0;
+
+		while (i < last.count || j < next.count) {
+			if (j == next.count || i < last.count && last.addresses[i] < next.addresses[j]) {
+				delta.removed.add(new Record(last.addresses[i], last.records[i].clone()));
+				i++;
+			} else if (i == last.count || next.addresses[j] < last.addresses[i]) {
+				delta.written.add(new Record(next.addresses[j], next.records[j].clone()));
+				j++;
+			} else {
+				if (!Arrays.equals(last.records[i], next.records[j])) {
+					delta.written.add(new Record(next.addresses[j], next.records[j].clone()));
+				}
+				i++;
+				j++;
+			}
+		}
+
+		output = next;
+		return delta;
+	}
+
+	/** Distinct lines kept from the last run that succeeded. */
+	int getLineCount() {
+		return lines.size();
+	}
+}
@@ -1,9 +1,12 @@
 package dk.sar.gasm;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
-import com.google.common.collect.Lists;
-
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.SpecLoader;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -20,42 +23,71 @@ import lombok.extern.slf4j.Slf4j;
 public class Main {
 
 	/**
-	 * Usage: args[0] is specification file name args[1] is assembly file name
+	 * Usage: args[0] is specification file name args[1] is assembly file name,
+	 * optionally preceded by options. With {@code --batch}, args[0] is the
+	 * specification file name followed by any number of assembly files and
+	 * directories, each file assembled to files next to it.
+	 *
+	 * <pre>
+	 * --batch           assemble many files against one spec, see above
+	 * --fill=XX         hex value of the gaps in a binary image, default FF
+	 * --format=FORMAT   listing (default), bin, ihex or srec
+	 * --jobs=N          files of a batch assembled at once, default one per core
+	 * --no-relax        use the first operand format that fits a line, not the
+	 *                   smallest that holds its labels
+	 * --object-cache=DIR keep the object code of runs in DIR, reused while the
+	 *                   source, spec, options and assembler are unchanged
+	 * --object-cache-size=MB
+	 *                   size the object code cache is kept to, default 512
+	 * --one-pass        encode in a single pass, backpatching forward references
+	 * --parallel        run both passes on all cores
+	 * --spec-cache=DIR  keep a binary form of the spec in DIR, read instead of
+	 *                   the YAML while the spec file is unchanged
+	 * --stats           report timings and counters of the run
+	 * --stream          map the assembly file instead of reading it onto the heap
+	 * </pre>
 	 */
 	public static void main(String[] args) {
+		run(args, CompiledSpec::load);
+	}
 
-		if (args.length == 0) {
-			log.error("Specification and assembly filenames not given.");
-			System.exit(1);
-		}
+	/**
+	 * Run the arguments of {@link #main(String[])}, logging the messages and
+	 * exiting with status 1 if the source was not assembled.
+	 *
+	 * @param specs - Loads the spec named by the arguments, i.e. a generated
+	 *              assembler returns its own.
+	 */
+	public static void run(String[] args, SpecLoader specs) {
+		AssemblyCommand command = null;
 
-		else if (args.length == 1) {
-			log.error("Assembly file not given.");
-			log.error("Specification file: " + args[0]);
+		try {
+			command = AssemblyCommand.parse(args);
+		} catch (IllegalArgumentException e) {
+			for (String line : e.getMessage().split("\n")) {
+				log.error(line);
+			}
 			System.exit(1);
 		}
 
-		else if (args.length > 2) {
-			log.error("Too many arguments provided.");
+		List<String> messages = new ArrayList<>();
+		var assembled = false;
+
+		try {
+			assembled = command.execute(Paths.get(""), specs, messages);
+		} catch (IOException e) {
 			System.exit(1);
 		}
 
-		if (!args[0].endsWith(".yaml") || !args[1].endsWith(".asm")) {
-			log.error("Input is limited to two files.");
-			System.exit(1);
+		for (String message : messages) {
+			if (assembled) {
+				log.info(message);
+			} else {
+				log.error(message);
+			}
 		}
 
-		try {
-			var file = new FileParser(args[0], args[1]);
-			var data = file.getData();
-			var asm = new Assembler(data);
-
-			Assembler.writeLinesToFile("object_code.txt", asm.getObjectCode());
-		} catch (FileParserException e) {
-			Assembler.writeLinesToFile("object_code.txt", Lists.newArrayList(e.getMessage()));
-			Assembler.writeLinesToFile("spec_error_report.txt", e.getErrorReport());
-			System.exit(1);
-		} catch (AssemblerException | IOException e) {
+		if (!assembled) {
 			System.exit(1);
 		}
 	}
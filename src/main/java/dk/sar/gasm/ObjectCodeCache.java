@@ -0,0 +1,438 @@
+package dk.sar.gasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import dk.sar.gasm.output.ObjectCodeSink;
+
+/**
+ * Object code of earlier runs kept on disk, like ccache: a run is keyed by
+ * the SHA-256 of its spec, the assembler version, the options that change the
+ * object code and the source, and a run with the key of a stored one is not
+ * assembled again. Its records and error report are replayed into the sink
+ * instead, so a stored run serves every output format, and runs that differ
+ * only in how they are scheduled, i.e. {@link AssemblerOptions#isParallel()},
+ * share it.
+ * <p>
+ * The cache holds about {@code maxBytes}. Every hit touches the modification
+ * time of its file, and once the stored runs grow past the size the least
+ * recently used ones are removed down to nine tenths of it. The directory is
+ * only listed when the first run is stored and when runs are removed, in
+ * between the runs stored are counted; runs stored by other processes are
+ * counted the next time it is listed. Several processes and threads may share
+ * the directory: files are written to a temporary file and moved into place.
+ * <p>
+ * Runs are keyed by the version of the assembler, its jar or the SHA-256 of
+ * its classes. If neither is known, runs are assembled and never stored, as a
+ * changed assembler could replay stale object code.
+ *
+ * @author Eddie Graham
+ */
+public class ObjectCodeCache {
+	/** A call to the sink. */
+	@FunctionalInterface
+	private interface IOAction {
+		void run() throws IOException;
+	}
+
+	/** Passes a run on to a sink, keeping a copy of its records. */
+	private static final class Recorder implements ObjectCodeSink {
+		private int count;
+		private final ObjectCodeSink delegate;
+		private String endian;
+		private String error;
+		/** The sink failed, the run is not stored. */
+		private boolean failed;
+		private int minAdrUnit;
+		private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		private final DataOutputStream writer = new DataOutputStream(records);
+
+		private Recorder(ObjectCodeSink delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void error(String message) throws IOException {
+			error = message;
+			forward(() -> delegate.error(message));
+		}
+
+		private void forward(IOAction action) throws IOException {
+			try {
+				action.run();
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void open(int minAdrUnit, String endian) throws IOException {
+			this.minAdrUnit = minAdrUnit;
+			this.endian = endian;
+			forward(() -> delegate.open(minAdrUnit, endian));
+		}
+
+		@Override
+		public void write(int address, byte[] units) throws IOException {
+			// Before the sink owns the units, it may reorder them
+			writer.writeInt(address);
+			writer.writeInt(units.length);
+			writer.write(units);
+			count++;
+			forward(() -> delegate.write(address, units));
+		}
+	}
+
+	/** Version of the assembler, found when the first run is keyed. */
+	private static final class Version {
+		private static final String VALUE = assemblerVersion();
+	}
+
+	/** Size of the cache unless given, see {@code --object-cache-size}. */
+	public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+	private static final String EXTENSION = ".obj";
+	/** Version of the file layout. */
+	private static final int FORMAT_VERSION = 1;
+	/** "GOBJ" */
+	private static final int MAGIC = 0x474F424A;
+	/**
+	 * Version of the assembler: of its jar, with the size and time of the jar
+	 * so a rebuilt one does not replay the runs of the last, or the SHA-256 of
+	 * its classes when run from a directory. Null if neither is known.
+	 */
+	private static String assemblerVersion() {
+		var codeSource = Assembler.class.getProtectionDomain().getCodeSource();
+
+		try {
+			if (codeSource != null && codeSource.getLocation() != null) {
+				var location = Paths.get(codeSource.getLocation().toURI());
+
+				if (Files.isRegularFile(location)) {
+					return Assembler.class.getPackage().getImplementationVersion() + "/" + Files.size(location) + "/"
+							+ Files.getLastModifiedTime(location).toMillis();
+				} else if (Files.isDirectory(location)) {
+					return classesHash(location);
+				}
+			}
+		} catch (IOException | URISyntaxException | IllegalArgumentException e) {
+			// Not local classes, no version
+		}
+
+		return null;
+	}
+
+	/** Hex SHA-256 of the names and contents of the class files in a directory. */
+	private static String classesHash(Path directory) throws IOException {
+		var digest = sha256();
+		List<Path> classes;
+
+		try (var walk = Files.walk(directory)) {
+			classes = walk.filter(f -> f.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+		}
+
+		for (Path file : classes) {
+			digest.update(directory.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(file));
+		}
+
+		return hex(digest.digest());
+	}
+
+	private static String hex(byte[] bytes) {
+		var hex = new StringBuilder();
+
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+
+		return hex.toString();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void string(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			var bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String string(ByteBuffer in) {
+		var length = in.getInt();
+
+		if (length < 0) {
+			return null;
+		}
+
+		var bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private final Path directory;
+	private final long maxBytes;
+	/** Bytes of the stored runs when last listed and stored since, -1 before. */
+	private long size = -1;
+
+	/**
+	 * @param directory - Directory of the stored runs, created when the first
+	 *                  run is stored.
+	 * @param maxBytes  - Size the stored runs are kept to.
+	 */
+	public ObjectCodeCache(Path directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Assemble a source as {@link Assembler#assemble(List, ObjectCodeSink, AssemblyStats)}
+	 * does, or replay the stored run with the same key into the sink. Stats
+	 * are only collected when the source is assembled.
+	 *
+	 * @param assembler    - Assembler of the spec and options of the run.
+	 * @param assemblyCode - Source lines to assemble.
+	 * @param sink         - Receives the object code.
+	 * @param stats        - Receives the stats, or null.
+	 * @return True if the run was replayed.
+	 * @throws AssemblerException if the source has an error, stored or not.
+	 */
+	public boolean assemble(Assembler assembler, List<String> assemblyCode, ObjectCodeSink sink, AssemblyStats stats)
+			throws AssemblerException {
+		if (Version.VALUE == null) {
+			assembler.assemble(assemblyCode, sink, stats);
+			return false;
+		}
+
+		var file = directory.resolve(key(assembler, assemblyCode) + EXTENSION);
+
+		if (replay(file, sink)) {
+			return true;
+		}
+
+		var recorder = new Recorder(sink);
+
+		try {
+			assembler.assemble(assemblyCode, recorder, stats);
+		} catch (AssemblerException e) {
+			// Errors of the source are stored, failures of the sink are not
+			if (recorder.error != null && !recorder.failed) {
+				store(file, recorder, e.getMessage());
+			}
+
+			throw e;
+		}
+
+		store(file, recorder, null);
+		return false;
+	}
+
+	/**
+	 * List the stored runs and, if they exceed the size of the cache, remove
+	 * the least recently used ones down to nine tenths of it.
+	 *
+	 * @return Bytes of the runs left.
+	 */
+	private long evict() throws IOException {
+		List<Path> files;
+
+		try (var list = Files.list(directory)) {
+			files = list.filter(f -> f.toString().endsWith(EXTENSION)).collect(Collectors.toList());
+		}
+
+		Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+		long total = 0;
+
+		for (Path file : files) {
+			try {
+				var fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+				attributes.put(file, fileAttributes);
+				total += fileAttributes.size();
+			} catch (NoSuchFileException e) {
+				// Evicted by another run
+			}
+		}
+
+		files = new ArrayList<>(attributes.keySet());
+		files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+
+		if (total > maxBytes) {
+			for (var i = 0; total > maxBytes / 10 * 9 && i < files.size(); i++) {
+				Files.deleteIfExists(files.get(i));
+				total -= attributes.get(files.get(i)).size();
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Hex SHA-256 of the spec, assembler version, options and source of a run.
+	 * Only {@link AssemblerOptions#isOnePass()} and
+	 * {@link AssemblerOptions#isRelax()} change the object code, the other
+	 * options are left out.
+	 */
+	private String key(Assembler assembler, List<String> assemblyCode) {
+		var digest = sha256();
+		var options = assembler.getOptions();
+		var header = assembler.getSpec().getFingerprint() + "\n" + Version.VALUE + "\nonePass=" + options.isOnePass()
+				+ ",relax=" + options.isRelax() + "\n";
+		digest.update(header.getBytes(StandardCharsets.UTF_8));
+
+		for (String line : assemblyCode) {
+			digest.update(line.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Replay a stored run into a sink, unless there is none or it cannot be
+	 * read. Nothing is passed to the sink then.
+	 */
+	private boolean replay(Path file, ObjectCodeSink sink) throws AssemblerException {
+		ByteBuffer in;
+
+		try {
+			in = ByteBuffer.wrap(Files.readAllBytes(file));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			return false;
+		}
+
+		int minAdrUnit;
+		String endian;
+		int[] addresses;
+		byte[][] records;
+		String error;
+		String exception;
+
+		try {
+			if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+				return false;
+			}
+
+			minAdrUnit = in.getInt();
+			endian = string(in);
+			addresses = new int[in.getInt()];
+			records = new byte[addresses.length][];
+
+			for (var i = 0; i < records.length; i++) {
+				addresses[i] = in.getInt();
+				records[i] = new byte[in.getInt()];
+				in.get(records[i]);
+			}
+
+			error = string(in);
+			exception = string(in);
+		} catch (BufferUnderflowException | NegativeArraySizeException e) {
+			return false;
+		}
+
+		try {
+			sink.open(minAdrUnit, endian);
+
+			for (var i = 0; i < records.length; i++) {
+				sink.write(addresses[i], records[i]);
+			}
+
+			if (error != null) {
+				sink.error(error);
+			}
+		} catch (IOException e) {
+			throw new AssemblerException("Could not write object code: " + e.getMessage(), e);
+		}
+
+		if (error != null) {
+			throw new AssemblerException(exception);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Store a run, a cache that cannot be written is left as it is.
+	 *
+	 * @param exception - Message of the exception of a run with an error.
+	 */
+	private void store(Path file, Recorder recorder, String exception) {
+		try {
+			var data = new ByteArrayOutputStream(recorder.records.size() + 64);
+			var out = new DataOutputStream(data);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(recorder.minAdrUnit);
+			string(out, recorder.endian);
+			out.writeInt(recorder.count);
+			recorder.records.writeTo(out);
+			string(out, recorder.error);
+			string(out, exception);
+
+			Files.createDirectories(directory);
+			var temporary = Files.createTempFile(directory, "run", ".tmp");
+
+			try {
+				Files.write(temporary, data.toByteArray());
+
+				try {
+					Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+
+			stored(data.size());
+		} catch (IOException e) {
+			// The run is assembled again next time
+		}
+	}
+
+	/** Count a stored run, and remove runs once the cache grew past its size. */
+	private synchronized void stored(long bytes) throws IOException {
+		if (size < 0) {
+			// The run is in the directory already
+			size = evict();
+		} else {
+			size += bytes;
+
+			if (size > maxBytes) {
+				size = evict();
+			}
+		}
+	}
+}
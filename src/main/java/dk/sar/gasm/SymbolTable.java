@@ -0,0 +1,137 @@
+package dk.sar.gasm;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Labels and their addresses, in an open-addressed hash table of primitive
+ * values: no entry objects and no boxed integers. Keys are probed linearly and
+ * their hashes kept alongside, so a probe only compares the strings of keys
+ * with the same hash.
+ *
+ * @author Eddie Graham
+ */
+final class SymbolTable {
+	/** Returned by {@link #get(String)} for a label not in the table. */
+	static final int MISSING = Integer.MIN_VALUE;
+
+	private static int capacityFor(int expected) {
+		var capacity = 16;
+
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	/** Spread the bits of a String hash, neighbouring names differ in the low bits only. */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ hash >>> 16;
+	}
+
+	private int[] hashes;
+	private String[] keys;
+	private int mask;
+	private int size;
+	private int[] values;
+
+	SymbolTable() {
+		this(8);
+	}
+
+	/**
+	 * @param expected - Number of labels to make room for.
+	 */
+	SymbolTable(int expected) {
+		allocate(capacityFor(expected));
+	}
+
+	private void allocate(int capacity) {
+		hashes = new int[capacity];
+		keys = new String[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return The address of a label, or {@link #MISSING}.
+	 */
+	int get(String name) {
+		var hash = mix(name.hashCode());
+
+		for (var i = hash & mask;; i = i + 1 & mask) {
+			var key = keys[i];
+
+			if (key == null) {
+				return MISSING;
+			} else if (hashes[i] == hash && key.equals(name)) {
+				return values[i];
+			}
+		}
+	}
+
+	/**
+	 * Add a label.
+	 *
+	 * @return False if the label is already in the table, which is left as it
+	 *         was.
+	 */
+	boolean put(String name, int address) {
+		if (size * 2 >= keys.length) {
+			rehash();
+		}
+
+		var hash = mix(name.hashCode());
+		var i = hash & mask;
+
+		for (var key = keys[i]; key != null; key = keys[i]) {
+			if (hashes[i] == hash && key.equals(name)) {
+				return false;
+			}
+
+			i = i + 1 & mask;
+		}
+
+		hashes[i] = hash;
+		keys[i] = name;
+		values[i] = address;
+		size++;
+		return true;
+	}
+
+	private void rehash() {
+		var oldHashes = hashes;
+		var oldKeys = keys;
+		var oldValues = values;
+
+		allocate(keys.length * 2);
+
+		for (var j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null) {
+				var i = oldHashes[j] & mask;
+
+				while (keys[i] != null) {
+					i = i + 1 & mask;
+				}
+
+				hashes[i] = oldHashes[j];
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/** Replace the address of every label, i.e. when the code before it grows. */
+	void remap(IntUnaryOperator address) {
+		for (var i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				values[i] = address.applyAsInt(values[i]);
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+}
@@ -0,0 +1,271 @@
+package dk.sar.gasm.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import dk.sar.gasm.AssemblyCommand;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Assembles for {@link DaemonClient} in a long-running process, keeping the
+ * JIT warm and the compiled specs in a {@link SpecCache}.
+ * <p>
+ * The daemon listens on the loopback interface only, and serves requests on a
+ * fixed pool of threads. A request carries the working directory of the client
+ * and the arguments of {@link dk.sar.gasm.Main}; files are read and written
+ * relative to that directory with the permissions of the daemon.
+ * <p>
+ * Other users of the host can connect too, so every request carries a secret
+ * token. The daemon writes a random token at startup to a file only its user
+ * can read, see {@link #tokenFile(Path, int)}, and rejects requests with any
+ * other token. A client that does not send a whole request within
+ * {@value #TIMEOUT} ms is disconnected.
+ *
+ * <pre>
+ * request:  UTF protocol, UTF token, UTF "assemble", UTF directory, int count, UTF argument...
+ *           UTF protocol, UTF token, UTF "stop"
+ * response: int status, int count, UTF message...
+ * </pre>
+ *
+ * Status 0 means assembled, 1 failed as {@link dk.sar.gasm.Main} fails, and 2 a
+ * request the daemon does not understand or with the wrong token.
+ *
+ * @author Eddie Graham
+ */
+@Slf4j
+public class AssemblerDaemon implements Closeable {
+	static final String ASSEMBLE = "assemble";
+	public static final int DEFAULT_PORT = 7171;
+	/** Directory of the token files, {@code .gasm} in the home of the user. */
+	public static final Path DEFAULT_TOKEN_DIRECTORY = Paths.get(System.getProperty("user.home"), ".gasm");
+	static final String PROTOCOL = "gasm-daemon/2";
+	static final String STOP = "stop";
+	/** Milliseconds a client may take to send a request. */
+	static final int TIMEOUT = 30_000;
+	private static final int TOKEN_BYTES = 32;
+
+	/**
+	 * Usage: {@code [--port=N] [--threads=N]}, by default port
+	 * {@value #DEFAULT_PORT} and a thread per core.
+	 */
+	public static void main(String[] args) {
+		var port = DEFAULT_PORT;
+		var threads = Runtime.getRuntime().availableProcessors();
+
+		try {
+			for (String option : args) {
+				if (option.startsWith("--port=")) {
+					port = Integer.parseInt(option.substring("--port=".length()));
+				} else if (option.startsWith("--threads=")) {
+					threads = Integer.parseInt(option.substring("--threads=".length()));
+				} else {
+					log.error("Unknown option: " + option);
+					System.exit(1);
+				}
+			}
+		} catch (NumberFormatException e) {
+			log.error("Not a number: " + e.getMessage());
+			System.exit(1);
+		}
+
+		try (var daemon = new AssemblerDaemon(port, threads)) {
+			log.info("Listening on port " + daemon.getPort());
+			daemon.serve();
+		} catch (IOException e) {
+			log.error("Daemon failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/** File the daemon on a port writes its token to. */
+	public static Path tokenFile(Path tokenDirectory, int port) {
+		return tokenDirectory.resolve("daemon-" + port + ".token");
+	}
+
+	/**
+	 * Write a token to a new file, readable and writable by the user only.
+	 * A file left by an earlier daemon is replaced.
+	 */
+	private static void writeToken(Path file, String token) throws IOException {
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Files.createDirectories(file.getParent(),
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			Files.deleteIfExists(file);
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createDirectories(file.getParent());
+			Files.deleteIfExists(file);
+			Files.createFile(file);
+		}
+
+		Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private final ExecutorService pool;
+	private final ServerSocket server;
+	private final SpecCache specs = new SpecCache();
+	private final byte[] token;
+	private final Path tokenFile;
+
+	/**
+	 * Listen with the token file in {@link #DEFAULT_TOKEN_DIRECTORY}.
+	 *
+	 * @param port    - Port to listen on, 0 for any free port.
+	 * @param threads - Requests served at once.
+	 * @throws IOException if the port cannot be bound or the token written.
+	 */
+	public AssemblerDaemon(int port, int threads) throws IOException {
+		this(port, threads, DEFAULT_TOKEN_DIRECTORY);
+	}
+
+	/**
+	 * @param port           - Port to listen on, 0 for any free port.
+	 * @param threads        - Requests served at once.
+	 * @param tokenDirectory - Directory to write the token file to.
+	 * @throws IOException if the port cannot be bound or the token written.
+	 */
+	public AssemblerDaemon(int port, int threads, Path tokenDirectory) throws IOException {
+		var bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		var text = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		token = text.getBytes(StandardCharsets.UTF_8);
+		tokenFile = tokenFile(tokenDirectory, server.getLocalPort());
+
+		try {
+			writeToken(tokenFile, text);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Stop accepting requests and delete the token file. Requests being served
+	 * are completed.
+	 */
+	@Override
+	public void close() throws IOException {
+		pool.shutdown();
+		server.close();
+		Files.deleteIfExists(tokenFile);
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public SpecCache getSpecs() {
+		return specs;
+	}
+
+	/** Accept requests until the daemon is closed or stopped by a client. */
+	public void serve() throws IOException {
+		while (!server.isClosed()) {
+			Socket socket;
+
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				if (server.isClosed()) {
+					return;
+				}
+				throw e;
+			}
+
+			pool.execute(() -> serve(socket));
+		}
+	}
+
+	/**
+	 * Run an assemble request.
+	 *
+	 * @return The status of the response.
+	 */
+	private int assemble(DataInputStream in, List<String> messages) throws IOException {
+		var directory = Paths.get(in.readUTF());
+		var args = new String[in.readInt()];
+
+		for (var i = 0; i < args.length; i++) {
+			args[i] = in.readUTF();
+		}
+
+		log.debug("{} in {}", Arrays.toString(args), directory);
+
+		try {
+			return AssemblyCommand.parse(args).execute(directory, specs, messages) ? 0 : 1;
+		} catch (IllegalArgumentException e) {
+			messages.addAll(Arrays.asList(e.getMessage().split("\n")));
+		} catch (IOException e) {
+			messages.add(e.toString());
+		}
+
+		return 1;
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			socket.setSoTimeout(TIMEOUT);
+			var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			List<String> messages = new ArrayList<>();
+			int status;
+
+			if (!PROTOCOL.equals(in.readUTF())) {
+				messages.add("Unsupported protocol, expected " + PROTOCOL + ".");
+				status = 2;
+			} else if (!MessageDigest.isEqual(token, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+				messages.add("Wrong token, see " + tokenFile + ".");
+				status = 2;
+			} else {
+				var request = in.readUTF();
+
+				if (request.equals(ASSEMBLE)) {
+					status = assemble(in, messages);
+				} else if (request.equals(STOP)) {
+					messages.add("Daemon stopped.");
+					status = 0;
+					close();
+				} else {
+					messages.add("Unknown request: " + request);
+					status = 2;
+				}
+			}
+
+			out.writeInt(status);
+			out.writeInt(messages.size());
+			for (String message : messages) {
+				out.writeUTF(message);
+			}
+			out.flush();
+		} catch (IOException e) {
+			log.warn("Request failed: " + e.getMessage());
+		} catch (RuntimeException e) {
+			log.error("Request failed", e);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package dk.sar.gasm.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thin client of the {@link AssemblerDaemon}: takes the arguments of
+ * {@link dk.sar.gasm.Main} and has the daemon assemble in the working
+ * directory, with the same output files and exit status. Requests carry the
+ * token the daemon wrote to its token file, see
+ * {@link AssemblerDaemon#tokenFile(Path, int)}.
+ *
+ * @author Eddie Graham
+ */
+@Slf4j
+public class DaemonClient {
+	/** Writes the body of a request after the protocol. */
+	private interface Request {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Usage: {@code [--port=N] [--stop | Main arguments]}. {@code --stop} shuts
+	 * the daemon down.
+	 */
+	public static void main(String[] args) {
+		var port = AssemblerDaemon.DEFAULT_PORT;
+		var optionCount = 0;
+		var stop = false;
+
+		for (; optionCount < args.length; optionCount++) {
+			if (args[optionCount].startsWith("--port=")) {
+				try {
+					port = Integer.parseInt(args[optionCount].substring("--port=".length()));
+				} catch (NumberFormatException e) {
+					log.error("Not a port: " + args[optionCount]);
+					System.exit(1);
+				}
+			} else if (args[optionCount].equals("--stop")) {
+				stop = true;
+			} else {
+				break;
+			}
+		}
+
+		List<String> messages = new ArrayList<>();
+		int status;
+
+		try {
+			var token = readToken(AssemblerDaemon.DEFAULT_TOKEN_DIRECTORY, port);
+			var request = Arrays.copyOfRange(args, optionCount, args.length);
+			status = stop ? stop(port, token, messages)
+					: assemble(port, token, Paths.get("").toAbsolutePath(), request, messages);
+		} catch (IOException e) {
+			log.error("No assembler daemon on port " + port + ": " + e.getMessage());
+			status = 1;
+		}
+
+		for (String message : messages) {
+			if (status == 0) {
+				log.info(message);
+			} else {
+				log.error(message);
+			}
+		}
+
+		System.exit(status);
+	}
+
+	/**
+	 * Have the daemon assemble.
+	 *
+	 * @param port      - Port of the daemon on the loopback interface.
+	 * @param token     - Token of the daemon, see {@link #readToken(Path, int)}.
+	 * @param directory - Directory the files are resolved against and written
+	 *                  to.
+	 * @param args      - Arguments of {@link dk.sar.gasm.Main}.
+	 * @param messages  - Receives the messages of the daemon.
+	 * @return The exit status of {@link dk.sar.gasm.Main}.
+	 * @throws IOException if the daemon cannot be reached.
+	 */
+	public static int assemble(int port, String token, Path directory, String[] args, List<String> messages)
+			throws IOException {
+		return request(port, token, messages, out -> {
+			out.writeUTF(AssemblerDaemon.ASSEMBLE);
+			out.writeUTF(directory.toString());
+			out.writeInt(args.length);
+			for (String arg : args) {
+				out.writeUTF(arg);
+			}
+		});
+	}
+
+	/**
+	 * Read the token of the daemon on a port.
+	 *
+	 * @param tokenDirectory - Directory the daemon wrote its token file to.
+	 * @throws IOException if the token file cannot be read, i.e. no daemon
+	 *                     runs on the port.
+	 */
+	public static String readToken(Path tokenDirectory, int port) throws IOException {
+		return new String(Files.readAllBytes(AssemblerDaemon.tokenFile(tokenDirectory, port)), StandardCharsets.UTF_8)
+				.trim();
+	}
+
+	private static int request(int port, String token, List<String> messages, Request request) throws IOException {
+		try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(AssemblerDaemon.PROTOCOL);
+			out.writeUTF(token);
+			request.write(out);
+			out.flush();
+
+			var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			var status = in.readInt();
+			var count = in.readInt();
+
+			for (var i = 0; i < count; i++) {
+				messages.add(in.readUTF());
+			}
+
+			return status;
+		}
+	}
+
+	/**
+	 * Shut the daemon down.
+	 *
+	 * @throws IOException if the daemon cannot be reached.
+	 */
+	public static int stop(int port, String token, List<String> messages) throws IOException {
+		return request(port, token, messages, out -> out.writeUTF(AssemblerDaemon.STOP));
+	}
+}
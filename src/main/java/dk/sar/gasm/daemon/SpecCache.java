@@ -0,0 +1,56 @@
+package dk.sar.gasm.daemon;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.FileParserException;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.SpecLoader;
+
+/**
+ * Compiled specs by file. A spec is compiled again when its file changes size
+ * or modification time; specs that fail to compile are not kept.
+ *
+ * @author Eddie Graham
+ */
+public class SpecCache implements SpecLoader {
+	private static final class Entry {
+		private final FileTime modified;
+		private final long size;
+		private final CompiledSpec spec;
+
+		private Entry(FileTime modified, long size, CompiledSpec spec) {
+			this.modified = modified;
+			this.size = size;
+			this.spec = spec;
+		}
+	}
+
+	private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+	@Override
+	public CompiledSpec load(Path specFile) throws IOException, FileParserException, AssemblerException {
+		var path = specFile.toRealPath();
+		var modified = Files.getLastModifiedTime(path);
+		var size = Files.size(path);
+		var entry = entries.get(path);
+
+		if (entry == null || entry.size != size || !entry.modified.equals(modified)) {
+			// Two requests may compile a changed spec at once, the last one is kept
+			entry = new Entry(modified, size, CompiledSpec.load(path));
+			entries.put(path, entry);
+		}
+
+		return entry.spec;
+	}
+
+	/** Number of specs in the cache. */
+	public int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,145 @@
+package dk.sar.gasm.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Assembly source read through a memory-mapped file.
+ * <p>
+ * Only the start and end offset of every line are kept on the heap; a line is
+ * decoded from the mapped file each time it is requested. Lines are split as
+ * by {@link java.nio.file.Files#readAllLines(Path)}: on {@code \n}, {@code \r}
+ * or {@code \r\n}, with no empty line after a final line terminator. A file
+ * that is not valid UTF-8 is rejected when it is mapped, with the
+ * {@link java.nio.charset.MalformedInputException} that
+ * {@code readAllLines} throws.
+ *
+ * @author Eddie Graham
+ */
+public class MappedAssemblyCode extends AbstractList<String> implements RandomAccess {
+	private static final ThreadLocal<CharsetDecoder> DECODERS = ThreadLocal.withInitial(MappedAssemblyCode::decoder);
+
+	/** A UTF-8 decoder that reports malformed input instead of replacing it. */
+	private static CharsetDecoder decoder() {
+		return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+	}
+
+	/**
+	 * Decode a file without keeping the characters.
+	 *
+	 * @throws CharacterCodingException at the first malformed byte sequence.
+	 */
+	private static void validate(MappedByteBuffer bytes) throws CharacterCodingException {
+		var decoder = decoder();
+		var chars = CharBuffer.allocate(8192);
+		var input = bytes.duplicate();
+
+		while (true) {
+			var result = decoder.decode(input, chars, true);
+
+			if (result.isError()) {
+				result.throwException();
+			}
+
+			if (result.isUnderflow()) {
+				return;
+			}
+
+			chars.clear();
+		}
+	}
+
+	private final MappedByteBuffer buffer;
+	private int[] ends;
+	private int size;
+	private int[] starts;
+
+	/**
+	 * Map a source file and index its lines.
+	 *
+	 * @param file - UTF-8 encoded source file.
+	 * @throws IOException if the file cannot be read, is not UTF-8 or exceeds
+	 *                     2 GB.
+	 */
+	public MappedAssemblyCode(Path file) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map (" + channel.size() + " bytes).");
+			}
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		validate(buffer);
+
+		var capacity = 1024;
+		starts = new int[capacity];
+		ends = new int[capacity];
+
+		var length = buffer.limit();
+		var start = 0;
+
+		for (var i = 0; i < length; i++) {
+			var b = buffer.get(i);
+
+			if (b == '\n' || b == '\r') {
+				addLine(start, i);
+
+				if (b == '\r' && i + 1 < length && buffer.get(i + 1) == '\n') {
+					i++;
+				}
+				start = i + 1;
+			}
+		}
+
+		if (start < length) {
+			addLine(start, length);
+		}
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Line " + index + " of " + size);
+		}
+
+		// A duplicate leaves the buffer position alone, so lines can be read concurrently
+		var bytes = buffer.duplicate().position(starts[index]).limit(ends[index]);
+
+		try {
+			return DECODERS.get().decode(bytes).toString();
+		} catch (CharacterCodingException e) {
+			// Validated when mapped, the file changed since
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void addLine(int start, int end) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+}
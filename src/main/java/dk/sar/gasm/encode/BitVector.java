@@ -0,0 +1,185 @@
+package dk.sar.gasm.encode;
+
+import java.util.Arrays;
+
+/**
+ * Growable vector of bits, appended most significant bit first.
+ * <p>
+ * Instructions and data are packed into the vector field by field with shifts
+ * and masks, and read back in minimum addressable units (MAUs) of up to 64 bits.
+ * A trailing unit shorter than the MAU holds the remaining bits right aligned,
+ * as the object code has always done.
+ *
+ * @author Eddie Graham
+ */
+public class BitVector {
+	private static final int WORD_BITS = 64;
+
+	private int length;
+	private long[] words;
+
+	public BitVector() {
+		this(WORD_BITS);
+	}
+
+	public BitVector(int capacity) {
+		words = new long[Math.max(1, (capacity + WORD_BITS - 1) / WORD_BITS)];
+	}
+
+	/** Copy of another vector. */
+	public BitVector(BitVector other) {
+		words = other.words.clone();
+		length = other.length;
+	}
+
+	/**
+	 * Append the low {@code width} bits of a value.
+	 *
+	 * @param value - Value to append.
+	 * @param width - Number of bits, 0 to 64.
+	 */
+	public void append(long value, int width) {
+		if (width <= 0) {
+			return;
+		}
+
+		ensureCapacity(length + width);
+		or(length, value, width);
+		length += width;
+	}
+
+	/**
+	 * Append a string of '0' and '1' characters, left padded with zeros to at
+	 * least {@code width} bits.
+	 *
+	 * @param binary - Binary digits.
+	 * @param width  - Minimum number of bits.
+	 * @throws NumberFormatException if the string holds other characters.
+	 */
+	public void appendBinary(String binary, int width) {
+		appendZeros(width - binary.length());
+
+		long value = 0;
+		var bits = 0;
+
+		for (var i = 0; i < binary.length(); i++) {
+			var c = binary.charAt(i);
+			if (c != '0' && c != '1') {
+				throw new NumberFormatException("For input string: \"" + binary + "\" under radix 2");
+			}
+
+			value = value << 1 | c - '0';
+			bits++;
+
+			if (bits == WORD_BITS) {
+				append(value, bits);
+				value = 0;
+				bits = 0;
+			}
+		}
+
+		append(value, bits);
+	}
+
+	/**
+	 * Append a value of {@code valueWidth} bits, left padded with zeros to at
+	 * least {@code width} bits.
+	 */
+	public void appendPadded(long value, int valueWidth, int width) {
+		appendZeros(width - valueWidth);
+		append(value, valueWidth);
+	}
+
+	/** Append zeros, does nothing for a negative count. */
+	public void appendZeros(int count) {
+		if (count > 0) {
+			ensureCapacity(length + count);
+			length += count;
+		}
+	}
+
+	/**
+	 * Read up to 64 bits.
+	 *
+	 * @param from  - Index of the first bit.
+	 * @param count - Number of bits to read.
+	 * @return The bits right aligned.
+	 */
+	public long get(int from, int count) {
+		if (count <= 0) {
+			return 0;
+		}
+
+		var offset = from & (WORD_BITS - 1);
+		var index = from >>> 6;
+		var available = WORD_BITS - offset;
+		long value;
+
+		if (count <= available) {
+			value = words[index] >>> (available - count);
+		} else {
+			var spill = count - available;
+			value = words[index] << spill | words[index + 1] >>> (WORD_BITS - spill);
+		}
+
+		return count == WORD_BITS ? value : value & (1L << count) - 1;
+	}
+
+	/** Number of bits appended. */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * OR a value into bits already appended.
+	 *
+	 * @param from  - Index of the first bit.
+	 * @param value - Value, only the low {@code count} bits are used.
+	 * @param count - Number of bits, 0 to 64.
+	 */
+	public void or(int from, long value, int count) {
+		if (count <= 0) {
+			return;
+		}
+
+		if (count < WORD_BITS) {
+			value &= (1L << count) - 1;
+		}
+
+		var offset = from & (WORD_BITS - 1);
+		var index = from >>> 6;
+		var free = WORD_BITS - offset;
+
+		if (count <= free) {
+			words[index] |= value << (free - count);
+		} else {
+			var spill = count - free;
+			words[index] |= value >>> spill;
+			words[index + 1] |= value << (WORD_BITS - spill);
+		}
+	}
+
+	/**
+	 * Read a minimum addressable unit.
+	 *
+	 * @param index      - Index of the unit.
+	 * @param minAdrUnit - Bits per unit, 1 to 64.
+	 * @return The unit, right aligned.
+	 */
+	public long unit(int index, int minAdrUnit) {
+		var from = index * minAdrUnit;
+		return get(from, Math.min(minAdrUnit, length - from));
+	}
+
+	/** Number of minimum addressable units, counting a trailing partial unit. */
+	public int unitCount(int minAdrUnit) {
+		return (length + minAdrUnit - 1) / minAdrUnit;
+	}
+
+	private void ensureCapacity(int bits) {
+		var needed = (bits + WORD_BITS - 1) / WORD_BITS + 1;
+		if (needed > words.length) {
+			words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package dk.sar.gasm.encode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.OperandFormat;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.lexer.Lexer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * Precomputed encoding of a mnemonic in one of its operand formats.
+ * <p>
+ * Fields encoded by the mnemonic ({@code globalFieldEncodingHash}) or the
+ * operand format ({@code fieldBitHash}) are folded into a constant. Fields
+ * taken from the assembly line become operand slots with a bit offset and a
+ * width, so encoding a line is a copy of the constant with the operand values
+ * OR'ed in.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public class EncodingTemplate {
+
+	/** A field whose value is taken from an assembly operand. */
+	@Value
+	public static class OperandSlot {
+		String field;
+		int offset;
+		/** Index of the assembly term in {@link EncodingTemplate#mapOperands(List)}. */
+		int term;
+		int width;
+	}
+
+	/**
+	 * Token of {@code operandFieldEncodings}, i.e. {@code [rm+ho]}, split into
+	 * alphanumeric labels and separator symbols.
+	 */
+	private static final class OperandToken {
+		private final String[] parts;
+		private String separators = "";
+		/** Term index of each label part, -1 for symbols. */
+		private final int[] terms;
+
+		private OperandToken(String[] parts, int[] terms) {
+			this.parts = parts;
+			this.terms = terms;
+		}
+	}
+
+	/**
+	 * Compile the templates of every operand format of every mnemonic.
+	 *
+	 * @param spec - Specification.
+	 * @return Templates keyed by operand format.
+	 * @throws AssemblerException if an operand format cannot be encoded.
+	 */
+	public static Map<OperandFormat, EncodingTemplate> compileAll(SpecFile spec) throws AssemblerException {
+		Map<OperandFormat, EncodingTemplate> templates = new IdentityHashMap<>();
+
+		for (Mnemonic mnemonic : spec.getMnemonicTable().values()) {
+			for (String opFormat : mnemonic.getOperandsFormats()) {
+				var format = mnemonic.getOperandFormatHash().get(opFormat);
+
+				if (format == null) {
+					throw new AssemblerException("Operand format \"" + opFormat + "\" of mnemonic \""
+							+ mnemonic.getMnemonic() + "\" not found in operandFormatHash.");
+				}
+
+				if (!templates.containsKey(format)) {
+					templates.put(format, compile(spec, mnemonic, format));
+				}
+			}
+		}
+
+		return templates;
+	}
+
+	/**
+	 * Compile the template of a mnemonic in one operand format.
+	 *
+	 * @throws AssemblerException if an instruction format or field is undefined,
+	 *                            a field has no encoding, or a constant exceeds
+	 *                            the width of its field.
+	 */
+	public static EncodingTemplate compile(SpecFile spec, Mnemonic mnemonic, OperandFormat format)
+			throws AssemblerException {
+		var where = "Mnemonic \"" + mnemonic.getMnemonic() + "\", operand format \"" + format.getMnemFormat() + "\"";
+		var template = new EncodingTemplate(format.getOperandFieldEncodings());
+
+		for (String instruction : format.getInstructionFormat()) {
+			var insFormat = spec.getInstructionFormatHash().get(instruction);
+
+			if (insFormat == null) {
+				throw new AssemblerException(where + ": instruction format \"" + instruction + "\" not found.");
+			}
+
+			for (String field : insFormat.getFields()) {
+				var bits = insFormat.getFieldBitHash().get(field);
+
+				if (bits == null) {
+					throw new AssemblerException(
+							where + ": field \"" + field + "\" of instruction format \"" + instruction + "\" has no bits.");
+				}
+
+				var constant = mnemonic.getGlobalFieldEncodingHash().get(field);
+
+				if (constant == null) {
+					constant = format.getFieldBitHash().get(field);
+				}
+
+				if (constant != null) {
+					if (constant.length() > bits) {
+						throw new AssemblerException(where + ": encoding \"" + constant + "\" of field \"" + field
+								+ "\" exceeds expected number of bits (" + bits + ").");
+					}
+
+					try {
+						template.constant.appendBinary(constant, bits);
+					} catch (NumberFormatException e) {
+						throw new AssemblerException(
+								where + ": encoding \"" + constant + "\" of field \"" + field + "\" is not binary.");
+					}
+				} else if (template.termIndex.containsKey(field)) {
+					template.slots.add(new OperandSlot(field, template.constant.length(), template.termIndex.get(field), bits));
+					template.constant.appendZeros(bits);
+				} else {
+					throw new AssemblerException(where + ": no encoding for field \"" + field
+							+ "\". Specify it in globalFieldEncodingHash, fieldBitHash or operandFieldEncodings.");
+				}
+			}
+		}
+
+		template.width = template.constant.length();
+		return template;
+	}
+
+	/**
+	 * A template compiled ahead of time, as the generated assemblers hold their
+	 * templates.
+	 *
+	 * @param fieldEncodingLine - {@code operandFieldEncodings} of the format.
+	 * @param width             - Width of the instruction in bits.
+	 * @param constant          - The constant of {@link #compile}, 64 bits a
+	 *                          word, see {@link #constantWords()}.
+	 * @param slots             - The operand slots of {@link #compile}.
+	 */
+	public static EncodingTemplate of(String fieldEncodingLine, int width, long[] constant, OperandSlot... slots) {
+		var template = new EncodingTemplate(fieldEncodingLine);
+
+		for (var i = 0; i < constant.length; i++) {
+			template.constant.append(constant[i], Math.min(64, width - i * 64));
+		}
+
+		template.slots.addAll(List.of(slots));
+		template.width = width;
+		return template;
+	}
+
+	/** Fields set by the mnemonic and operand format, operand fields zero. */
+	private final BitVector constant = new BitVector();
+	private final String fieldEncodingLine;
+	private final List<OperandSlot> slots = new ArrayList<>();
+	@Getter(AccessLevel.NONE)
+	private final Map<String, Integer> termIndex = new HashMap<>();
+	@Getter(AccessLevel.NONE)
+	private final OperandToken[] tokens;
+	@Getter(AccessLevel.NONE)
+	private int termCount;
+	private int width;
+
+	private EncodingTemplate(String fieldEncodingLine) {
+		this.fieldEncodingLine = fieldEncodingLine;
+
+		if (fieldEncodingLine.isBlank()) {
+			tokens = null;
+			return;
+		}
+
+		var encodings = fieldEncodingLine.trim().split("\\s+");
+		tokens = new OperandToken[encodings.length];
+		List<String> labels = new ArrayList<>();
+
+		for (var i = 0; i < encodings.length; i++) {
+			var encoding = encodings[i];
+			List<String> parts = new ArrayList<>();
+			var start = 0;
+
+			while (start < encoding.length()) {
+				var end = start + 1;
+				if (Lexer.isAlphaNumeric(encoding.charAt(start))) {
+					while (end < encoding.length() && Lexer.isAlphaNumeric(encoding.charAt(end))) {
+						end++;
+					}
+				}
+				parts.add(encoding.substring(start, end));
+				start = end;
+			}
+
+			var terms = new int[parts.size()];
+			tokens[i] = new OperandToken(parts.toArray(new String[0]), terms);
+
+			for (var j = 0; j < terms.length; j++) {
+				var part = parts.get(j);
+				var c = part.charAt(0);
+
+				if (Lexer.isAlphaNumeric(c)) {
+					terms[j] = labels.size();
+					// A label used twice takes the last assembly term
+					termIndex.put(part, labels.size());
+					labels.add(part);
+				} else {
+					terms[j] = -1;
+					tokens[i].separators += c;
+				}
+			}
+		}
+
+		termCount = labels.size();
+	}
+
+	/**
+	 * The constant in words of 64 bits, most significant bits first, the last
+	 * word holding the remaining bits right aligned.
+	 */
+	public long[] constantWords() {
+		var words = new long[(width + 63) / 64];
+
+		for (var i = 0; i < words.length; i++) {
+			words[i] = constant.get(i * 64, Math.min(64, width - i * 64));
+		}
+
+		return words;
+	}
+
+	/**
+	 * Map the relevant operands of an assembly line to the labels of
+	 * {@code operandFieldEncodings}.
+	 *
+	 * @param relevantOperands - Operands of the line in operand format order.
+	 * @return Assembly term of each label, indexed as {@link OperandSlot#getTerm()}.
+	 * @throws AssemblerException if the operands do not fit the field encodings.
+	 */
+	public String[] mapOperands(List<String> relevantOperands) throws AssemblerException {
+		var terms = new String[termCount];
+
+		if (tokens == null) {
+			return terms;
+		}
+
+		if (relevantOperands.size() != tokens.length) {
+			var error = new StringBuilder("Token mismatch between source assembly operands and operand fields:\n\n");
+			error.append("Source assembly operands: ");
+			for (String operand : relevantOperands) {
+				error.append(operand).append(" ");
+			}
+			error.append("\nOperand field encodings:  ").append(fieldEncodingLine);
+			error.append("\n\nField encodings should be mapped to the corresponding operand delimited by whitespace. ")
+					.append("\nExample input:\n\n").append("mnem reg32, reg32").append("\n\tmnem rm reg");
+			throw new AssemblerException(error.toString());
+		}
+
+		List<String> assemblyTerms = new ArrayList<>();
+
+		for (var i = 0; i < tokens.length; i++) {
+			var token = tokens[i];
+			var assemblyToken = relevantOperands.get(i);
+			var start = 0;
+			var length = assemblyToken.length();
+			assemblyTerms.clear();
+
+			while (start < length) {
+				var end = start + 1;
+				if (!isSeparator(token, assemblyToken.charAt(start))) {
+					while (end < length && !isSeparator(token, assemblyToken.charAt(end))) {
+						end++;
+					}
+				}
+				assemblyTerms.add(assemblyToken.substring(start, end));
+				start = end;
+			}
+
+			if (assemblyTerms.size() != token.parts.length) {
+				throw syntaxMismatch(relevantOperands);
+			}
+
+			for (var part = 0; part < token.parts.length; part++) {
+				var assemblyTerm = assemblyTerms.get(part);
+
+				if (token.terms[part] < 0) {
+					if (!token.parts[part].equals(assemblyTerm)) {
+						throw new AssemblerException("Could not map instruction fields to assembly line:\n\n" + fieldEncodingLine);
+					}
+				} else {
+					terms[token.terms[part]] = assemblyTerm;
+				}
+			}
+		}
+
+		return terms;
+	}
+
+	/** A new instruction, the constant fields set and operand fields zero. */
+	public BitVector newInstruction() {
+		return new BitVector(constant);
+	}
+
+	private boolean isSeparator(OperandToken token, char c) {
+		return token.separators.indexOf(c) >= 0;
+	}
+
+	private AssemblerException syntaxMismatch(List<String> relevantOperands) {
+		var error = new StringBuilder("Syntax mismatch between instruction operands and field encodings:\n\n");
+		error.append("Source assembly operands:  ");
+		for (String operand : relevantOperands) {
+			error.append(operand).append(" ");
+		}
+		error.append("\nOperand field encodings:  ").append(fieldEncodingLine);
+		error.append("\n\nSeparator commas should NOT be specified within the operand field encoding tokens, ")
+				.append("\nExample input:\n\n").append("mnem reg32, reg32").append("\n\tmnem rm reg");
+		return new AssemblerException(error.toString());
+	}
+}
@@ -0,0 +1,599 @@
+package dk.sar.gasm.generator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.FileParserException;
+import dk.sar.gasm.data.InstructionFormat;
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.OperandFormat;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.encode.EncodingTemplate.OperandSlot;
+import dk.sar.gasm.spec.CompiledMnemonic;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.YamlSpecReader;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generates the Java source of an assembler for one spec, the second form of
+ * assembler generator the project describes: the spec goes in, an assembler
+ * program comes out.
+ * <p>
+ * The generated class holds the spec as code, so it needs neither the YAML
+ * file nor the YAML reader and its reflection at runtime. It is a
+ * {@link dk.sar.gasm.spec.SpecReader} of that spec, compiles it once when the
+ * class is loaded and serves the {@link dk.sar.gasm.spec.CompiledSpec} from
+ * {@code spec()}. Its {@code main} takes the arguments of
+ * {@link dk.sar.gasm.Main} without the specification file.
+ * <p>
+ * It is also the {@link dk.sar.gasm.spec.InstructionSet} of the compiled spec:
+ * a mnemonic is found by a switch on its length and first character, a
+ * register by a switch on its name, and each mnemonic holds its operand
+ * formats with their syntaxes and encoding templates, the templates folded to
+ * constants by the generator. The assemblyOpTree matcher and the lexer are
+ * compiled from the spec when the class is loaded. Maps are filled in the
+ * order of the spec they were generated from, so the generated assembler
+ * matches and encodes exactly as the spec file does.
+ * <p>
+ * Tables are filled and looked up by methods of at most {@link #CHUNK}
+ * characters of source, so no method of a large spec exceeds the size limit
+ * of the JVM.
+ *
+ * @author Eddie Graham
+ */
+@Slf4j
+public class AssemblerGenerator {
+	/**
+	 * Characters of source a generated method holds at most. The statements
+	 * compile to at most two bytes of bytecode a character, a literal of one
+	 * character in a list being the densest, so a method stays well below the
+	 * 64K limit of the JVM.
+	 */
+	private static final int CHUNK = 16384;
+
+	/** Split statements into the bodies of methods of at most {@link #CHUNK} characters. */
+	private static List<List<String>> chunks(List<String> statements) {
+		List<List<String>> chunks = new ArrayList<>();
+		List<String> chunk = null;
+		var size = 0;
+
+		for (String statement : statements) {
+			if (chunk == null || size + statement.length() > CHUNK) {
+				chunk = new ArrayList<>();
+				chunks.add(chunk);
+				size = 0;
+			}
+
+			chunk.add(statement);
+			size += statement.length();
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Usage: {@code (spec.yaml package.ClassName)... sourceDirectory}
+	 * <p>
+	 * Exits with status 1 if a spec does not compile, so the {@code assemblers}
+	 * build profile fails on it.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length % 2 == 0) {
+			log.error("Usage: (spec.yaml package.ClassName)... sourceDirectory");
+			System.exit(1);
+		}
+
+		var sourceRoot = Paths.get(args[args.length - 1]);
+
+		for (var i = 0; i < args.length - 1; i += 2) {
+			try {
+				var generator = new AssemblerGenerator(new YamlSpecReader(args[i]).getSpecFile());
+				log.info("Generated " + generator.write(args[i + 1], sourceRoot));
+			} catch (IOException | FileParserException | AssemblerException | IllegalArgumentException e) {
+				log.error(args[i] + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+	}
+
+	/** A Java string literal, non-ASCII characters escaped. */
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+
+		var literal = new StringBuilder("\"");
+
+		for (var i = 0; i < value.length(); i++) {
+			var c = value.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				literal.append('\\').append(c);
+			} else if (c == '\n') {
+				literal.append("\\n");
+			} else if (c == '\r') {
+				literal.append("\\r");
+			} else if (c == '\t') {
+				literal.append("\\t");
+			} else if (c < ' ' || c > '~') {
+				literal.append(String.format("\\u%04x", (int) c));
+			} else {
+				literal.append(c);
+			}
+		}
+
+		return literal.append('"').toString();
+	}
+
+	/** Java string literals of a list, comma separated. */
+	private static String quoteAll(Collection<String> values) {
+		var literals = new StringBuilder();
+
+		for (String value : values) {
+			if (literals.length() > 0) {
+				literals.append(", ");
+			}
+
+			literals.append(quote(value));
+		}
+
+		return literals.toString();
+	}
+
+	/** The spec compiled, for its encoding templates. */
+	private final CompiledSpec compiled;
+	private StringBuilder source;
+	private final SpecFile spec;
+
+	/**
+	 * @param spec - Specification to generate an assembler for.
+	 * @throws AssemblerException if the spec does not compile, as the
+	 *                            generated assembler would fail to load it.
+	 */
+	public AssemblerGenerator(SpecFile spec) throws AssemblerException {
+		compiled = CompiledSpec.compile(spec);
+		this.spec = spec;
+	}
+
+	/**
+	 * Generate the source of the assembler.
+	 *
+	 * @param className - Fully qualified name of the generated class.
+	 * @return Java source of the class.
+	 * @throws IllegalArgumentException if the name is not a Java class name.
+	 */
+	public String generate(String className) {
+		if (!className.matches("([A-Za-z_$][\\w$]*\\.)*[A-Za-z_$][\\w$]*")) {
+			throw new IllegalArgumentException("Not a Java class name: " + className);
+		}
+
+		var dot = className.lastIndexOf('.');
+		var simpleName = className.substring(dot + 1);
+		source = new StringBuilder();
+
+		var tree = spec.getAssemblyOpTree();
+		List<String> opTree = new ArrayList<>();
+
+		for (Map.Entry<String, ? extends Collection<String>> node : tree.getAssemblyOpTreeHash().entrySet()) {
+			opTree.add("tree.getAssemblyOpTreeHash().put(" + quote(node.getKey()) + ", new ArrayList<>(Arrays.asList("
+					+ quoteAll(node.getValue()) + ")));");
+		}
+
+		for (String token : tree.getAssemblyOpTreeTokens()) {
+			opTree.add("tree.getAssemblyOpTreeTokens().add(" + quote(token) + ");");
+		}
+
+		List<String> formatNames = new ArrayList<>(spec.getInstructionFormatHash().keySet());
+		List<String> formats = new ArrayList<>();
+
+		for (var i = 0; i < formatNames.size(); i++) {
+			formats.add("formats.put(" + quote(formatNames.get(i)) + ", instructionFormat" + i + "());");
+		}
+
+		List<String> mnemonicNames = new ArrayList<>(spec.getMnemonicTable().keySet());
+		List<String> mnemonics = new ArrayList<>();
+		List<String> compiledMnemonics = new ArrayList<>();
+
+		for (var i = 0; i < mnemonicNames.size(); i++) {
+			var name = quote(mnemonicNames.get(i));
+			mnemonics.add("mnemonics.put(" + name + ", mnemonic" + i + "());");
+			compiledMnemonics.add("MNEMONICS[" + i + "] = compiledMnemonic" + i + "(mnemonics.get(" + name + "));");
+		}
+
+		List<String> registers = new ArrayList<>();
+		List<String> registerCases = new ArrayList<>();
+
+		for (Map.Entry<String, String> register : spec.getRegisterHash().entrySet()) {
+			registers.add("registers.put(" + quote(register.getKey()) + ", " + quote(register.getValue()) + ");");
+			registerCases.add("case " + quote(register.getKey()) + ":\n\treturn " + quote(register.getValue()) + ";");
+		}
+
+		if (dot > 0) {
+			line(0, "package " + className.substring(0, dot) + ";");
+			line(0, "");
+		}
+
+		line(0, "import java.util.ArrayList;");
+		line(0, "import java.util.Arrays;");
+		line(0, "import java.util.LinkedHashMap;");
+		line(0, "import java.util.List;");
+		line(0, "import java.util.Map;");
+		line(0, "");
+		line(0, "import dk.sar.gasm.AssemblerException;");
+		line(0, "import dk.sar.gasm.Main;");
+		line(0, "import dk.sar.gasm.data.AssemblyOpTree;");
+		line(0, "import dk.sar.gasm.data.InstructionFormat;");
+		line(0, "import dk.sar.gasm.data.Mnemonic;");
+		line(0, "import dk.sar.gasm.data.OperandFormat;");
+		line(0, "import dk.sar.gasm.data.SpecFile;");
+		line(0, "import dk.sar.gasm.encode.EncodingTemplate;");
+		line(0, "import dk.sar.gasm.encode.EncodingTemplate.OperandSlot;");
+		line(0, "import dk.sar.gasm.spec.CompiledMnemonic;");
+		line(0, "import dk.sar.gasm.spec.CompiledSpec;");
+		line(0, "import dk.sar.gasm.spec.FormatSyntax;");
+		line(0, "import dk.sar.gasm.spec.InstructionSet;");
+		line(0, "import dk.sar.gasm.spec.SpecReader;");
+		line(0, "");
+		line(0, "/**");
+		line(0, " * Assembler for the " + spec.getArchitecture() + " architecture, generated from its");
+		line(0, " * specification by dk.sar.gasm.generator.AssemblerGenerator. Do not edit.");
+		line(0, " */");
+		line(0, "public final class " + simpleName + " implements InstructionSet, SpecReader {");
+		line(1, "/** Mnemonics in the order of the mnemonic table. */");
+		line(1, "private static final CompiledMnemonic[] MNEMONICS = new CompiledMnemonic[" + mnemonicNames.size()
+				+ "];");
+		line(1, "private static final CompiledSpec SPEC;");
+		line(0, "");
+		line(1, "static {");
+		line(2, "var specFile = new " + simpleName + "().getSpecFile();");
+		calls(2, "compiledMnemonics", "specFile.getMnemonicTable()", compiledMnemonics);
+		line(0, "");
+		line(2, "try {");
+		line(3, "SPEC = CompiledSpec.compile(specFile, new " + simpleName + "());");
+		line(2, "} catch (AssemblerException e) {");
+		line(3, "throw new ExceptionInInitializerError(e);");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "/**");
+		line(1, " * Usage: the arguments of dk.sar.gasm.Main without the specification file.");
+		line(1, " */");
+		line(1, "public static void main(String[] args) {");
+		line(2, "var options = 0;");
+		line(0, "");
+		line(2, "while (options < args.length && args[options].startsWith(\"--\")) {");
+		line(3, "options++;");
+		line(2, "}");
+		line(0, "");
+		line(2, "var withSpec = new String[args.length + 1];");
+		line(2, "System.arraycopy(args, 0, withSpec, 0, options);");
+		line(2, "withSpec[options] = " + quote(simpleName + ".yaml") + ";");
+		line(2, "System.arraycopy(args, options, withSpec, options + 1, args.length - options);");
+		line(2, "Main.run(withSpec, specFile -> SPEC);");
+		line(1, "}");
+
+		methods("assemblyOpTree", "AssemblyOpTree tree", opTree);
+		methods("compiledMnemonics", "Map<String, Mnemonic> mnemonics", compiledMnemonics);
+
+		// A method per mnemonic and instruction format, the tables call them by chunks
+		for (var i = 0; i < mnemonicNames.size(); i++) {
+			var name = mnemonicNames.get(i);
+			line(0, "");
+			line(1, "private static CompiledMnemonic compiledMnemonic" + i + "(Mnemonic mnemonic) {");
+			compiledMnemonic(compiled.getInstructionSet().mnemonic(name, 0, name.length()));
+			line(1, "}");
+		}
+
+		for (var i = 0; i < formatNames.size(); i++) {
+			line(0, "");
+			line(1, "private static InstructionFormat instructionFormat" + i + "() {");
+			instructionFormat(spec.getInstructionFormatHash().get(formatNames.get(i)));
+			line(1, "}");
+		}
+
+		methods("instructionFormatHash", "Map<String, InstructionFormat> formats", formats);
+
+		for (var i = 0; i < mnemonicNames.size(); i++) {
+			line(0, "");
+			line(1, "private static Mnemonic mnemonic" + i + "() {");
+			mnemonic(spec.getMnemonicTable().get(mnemonicNames.get(i)));
+			line(1, "}");
+		}
+
+		mnemonicDispatch(mnemonicNames);
+		methods("mnemonicTable", "Map<String, Mnemonic> mnemonics", mnemonics);
+
+		var registerChunks = chunks(registerCases);
+
+		// register0 is called even without registers
+		if (registerChunks.isEmpty()) {
+			registerChunks.add(List.of());
+		}
+
+		for (var i = 0; i < registerChunks.size(); i++) {
+			line(0, "");
+			line(1, "private static String register" + i + "(String name) {");
+			line(2, "switch (name) {");
+
+			for (String registerCase : registerChunks.get(i)) {
+				lines(2, registerCase);
+			}
+
+			line(2, "default:");
+			line(3, "return " + (i + 1 < registerChunks.size() ? "register" + (i + 1) + "(name)" : "null") + ";");
+			line(2, "}");
+			line(1, "}");
+		}
+
+		methods("registerHash", "Map<String, String> registers", registers);
+		line(0, "");
+		line(1, "/** The compiled spec, shared by every assembly run. */");
+		line(1, "public static CompiledSpec spec() {");
+		line(2, "return SPEC;");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public SpecFile getSpecFile() {");
+		line(2, "var spec = new SpecFile();");
+		line(2, "spec.setArchitecture(" + quote(spec.getArchitecture()) + ");");
+		line(2, "spec.setEndian(" + quote(spec.getEndian()) + ");");
+		line(2, "spec.setMinAdrUnit(" + spec.getMinAdrUnit() + ");");
+		line(0, "");
+		line(2, "var tree = spec.getAssemblyOpTree();");
+		line(2, "tree.setRootToken(" + quote(tree.getRootToken()) + ");");
+		line(2, "tree.setAssemblyOpTreeHash(new LinkedHashMap<>());");
+		calls(2, "assemblyOpTree", "tree", opTree);
+		line(0, "");
+		line(2, "spec.setInstructionFormatHash(new LinkedHashMap<>());");
+		calls(2, "instructionFormatHash", "spec.getInstructionFormatHash()", formats);
+		line(0, "");
+		line(2, "spec.setMnemonicTable(new LinkedHashMap<>());");
+		calls(2, "mnemonicTable", "spec.getMnemonicTable()", mnemonics);
+		line(0, "");
+		line(2, "spec.setRegisterHash(new LinkedHashMap<>());");
+		calls(2, "registerHash", "spec.getRegisterHash()", registers);
+		line(2, "return spec;");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public CompiledMnemonic mnemonic(String s, int from, int to) {");
+		line(2, "switch (to - from) {");
+
+		for (int length : mnemonicNames.stream().mapToInt(String::length).distinct().sorted().toArray()) {
+			line(2, "case " + length + ":");
+			line(3, "return " + (length == 0 ? "MNEMONICS[" + mnemonicNames.indexOf("") + "]"
+					: "mnemonicLength" + length + "_0(s, from)") + ";");
+		}
+
+		line(2, "default:");
+		line(3, "return null;");
+		line(2, "}");
+		line(1, "}");
+		line(0, "");
+		line(1, "@Override");
+		line(1, "public String register(String name) {");
+		line(2, "return register0(name);");
+		line(1, "}");
+		line(0, "}");
+
+		return source.toString();
+	}
+
+	/** Call the methods of {@link #methods(String, String, List)}. */
+	private void calls(int indent, String name, String argument, List<String> statements) {
+		for (var i = 0; i < chunks(statements).size(); i++) {
+			line(indent, name + i + "(" + argument + ");");
+		}
+	}
+
+	/** A mnemonic with its formats, syntaxes and templates, the templates folded to constants. */
+	private void compiledMnemonic(CompiledMnemonic compiledMnemonic) {
+		var formats = compiledMnemonic.getFormats();
+
+		if (formats.isEmpty()) {
+			line(2, "return new CompiledMnemonic(List.of(), mnemonic);");
+			return;
+		}
+
+		line(2, "var formats = mnemonic.getOperandFormatHash();");
+		line(2, "var compiled = new CompiledMnemonic.Format[" + formats.size() + "];");
+
+		for (var i = 0; i < formats.size(); i++) {
+			var format = formats.get(i);
+			var template = format.getTemplate();
+			var constant = new StringBuilder();
+			var slots = new StringBuilder();
+
+			for (long word : template.constantWords()) {
+				constant.append(constant.length() == 0 ? "" : ", ").append(String.format("0x%XL", word));
+			}
+
+			for (OperandSlot slot : template.getSlots()) {
+				slots.append(", new OperandSlot(").append(quote(slot.getField())).append(", ").append(slot.getOffset())
+						.append(", ").append(slot.getTerm()).append(", ").append(slot.getWidth()).append(")");
+			}
+
+			line(2, "compiled[" + i + "] = new CompiledMnemonic.Format(formats.get(" + quote(format.getMnemFormat())
+					+ "), " + quote(format.getMnemFormat()) + ", new FormatSyntax(" + quote(format.getMnemFormat()) + "),");
+			line(4, "EncodingTemplate.of(" + quote(template.getFieldEncodingLine()) + ", " + template.getWidth()
+					+ ", new long[] { " + constant + " }" + slots + "));");
+		}
+
+		line(2, "return new CompiledMnemonic(List.of(compiled), mnemonic);");
+	}
+
+	private void instructionFormat(InstructionFormat format) {
+		line(2, "var format = new InstructionFormat();");
+		line(2, "format.setInstructionName(" + quote(format.getInstructionName()) + ");");
+
+		for (Map.Entry<String, Integer> field : format.getFieldBitHash().entrySet()) {
+			line(2, "format.getFieldBitHash().put(" + quote(field.getKey()) + ", " + field.getValue() + ");");
+		}
+
+		for (String field : format.getFields()) {
+			line(2, "format.getFields().add(" + quote(field) + ");");
+		}
+
+		line(2, "return format;");
+	}
+
+	private void line(int indent, String text) {
+		for (var i = 0; i < indent && !text.isEmpty(); i++) {
+			source.append('\t');
+		}
+
+		source.append(text).append('\n');
+	}
+
+	/** Lines of a statement, each indented by its leading tabs besides. */
+	private void lines(int indent, String statement) {
+		for (String text : statement.split("\n")) {
+			line(indent, text);
+		}
+	}
+
+	/** A method per chunk of statements, named {@code name0}, {@code name1}... */
+	private void methods(String name, String parameter, List<String> statements) {
+		var chunks = chunks(statements);
+
+		for (var i = 0; i < chunks.size(); i++) {
+			line(0, "");
+			line(1, "private static void " + name + i + "(" + parameter + ") {");
+
+			for (String statement : chunks.get(i)) {
+				lines(2, statement);
+			}
+
+			line(1, "}");
+		}
+	}
+	private void mnemonic(Mnemonic mnemonic) {
+		line(2, "var mnemonic = new Mnemonic();");
+		line(2, "mnemonic.setMnemonic(" + quote(mnemonic.getMnemonic()) + ");");
+		line(2, "mnemonic.setGlobalFieldEncodingHash(new LinkedHashMap<>());");
+
+		for (Map.Entry<String, String> field : mnemonic.getGlobalFieldEncodingHash().entrySet()) {
+			line(2, "mnemonic.getGlobalFieldEncodingHash().put(" + quote(field.getKey()) + ", "
+					+ quote(field.getValue()) + ");");
+		}
+
+		line(2, "mnemonic.setOperandFormatHash(new LinkedHashMap<>());");
+
+		for (Map.Entry<String, OperandFormat> entry : mnemonic.getOperandFormatHash().entrySet()) {
+			var format = entry.getValue();
+			line(2, "{");
+			line(3, "var format = new OperandFormat();");
+			line(3, "format.setMnemFormat(" + quote(format.getMnemFormat()) + ");");
+			line(3, "format.setOperandFieldEncodings(" + quote(format.getOperandFieldEncodings()) + ");");
+			line(3, "format.setFieldBitHash(new LinkedHashMap<>());");
+
+			for (Map.Entry<String, String> field : format.getFieldBitHash().entrySet()) {
+				line(3, "format.getFieldBitHash().put(" + quote(field.getKey()) + ", " + quote(field.getValue())
+						+ ");");
+			}
+
+			for (String instructionFormat : format.getInstructionFormat()) {
+				line(3, "format.getInstructionFormat().add(" + quote(instructionFormat) + ");");
+			}
+
+			line(3, "mnemonic.getOperandFormatHash().put(" + quote(entry.getKey()) + ", format);");
+			line(2, "}");
+		}
+
+		for (String opFormat : mnemonic.getOperandsFormats()) {
+			line(2, "mnemonic.getOperandsFormats().add(" + quote(opFormat) + ");");
+		}
+
+		line(2, "return mnemonic;");
+	}
+
+	/**
+	 * The methods {@code mnemonic} switches to by length, which switch on the
+	 * first character and compare the rest. Mnemonics of a length that do not
+	 * fit in one method continue in the next.
+	 */
+	private void mnemonicDispatch(List<String> names) {
+		Map<Integer, List<String>> byLength = new TreeMap<>();
+
+		for (String name : names) {
+			if (!name.isEmpty()) {
+				byLength.computeIfAbsent(name.length(), length -> new ArrayList<>()).add(name);
+			}
+		}
+
+		for (Map.Entry<Integer, List<String>> length : byLength.entrySet()) {
+			var sorted = length.getValue();
+			Collections.sort(sorted);
+			List<String> tests = new ArrayList<>();
+
+			for (String name : sorted) {
+				tests.add("if (s.startsWith(" + quote(name) + ", from)) {\n\treturn MNEMONICS[" + names.indexOf(name)
+						+ "];\n}");
+			}
+
+			var chunks = chunks(tests);
+			var method = "mnemonicLength" + length.getKey() + "_";
+
+			for (int i = 0, next = 0; i < chunks.size(); i++) {
+				line(0, "");
+				line(1, "private static CompiledMnemonic " + method + i + "(String s, int from) {");
+				line(2, "switch (s.charAt(from)) {");
+				var first = -1;
+
+				for (String test : chunks.get(i)) {
+					var c = sorted.get(next++).charAt(0);
+
+					if (c != first) {
+						if (first >= 0) {
+							line(3, "break;");
+						}
+
+						line(2, "case " + (c >= ' ' && c <= '~' && c != '\'' && c != '\\' ? "'" + c + "'" : (int) c) + ":");
+						first = c;
+					}
+
+					lines(3, test);
+				}
+
+				line(3, "break;");
+				line(2, "default:");
+				line(3, "break;");
+				line(2, "}");
+				line(0, "");
+				line(2, "return " + (i + 1 < chunks.size() ? method + (i + 1) + "(s, from)" : "null") + ";");
+				line(1, "}");
+			}
+		}
+	}
+
+	/**
+	 * Generate the source of the assembler into a source tree.
+	 *
+	 * @param className  - Fully qualified name of the generated class.
+	 * @param sourceRoot - Root of the source tree, package directories are
+	 *                   created.
+	 * @return The source file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public Path write(String className, Path sourceRoot) throws IOException {
+		var file = sourceRoot.resolve(className.replace('.', '/') + ".java");
+		var text = generate(className);
+
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,419 @@
+package dk.sar.gasm.generator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import dk.sar.gasm.Assembler;
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.FileParserException;
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.lexer.Lexer;
+import dk.sar.gasm.output.NullObjectCodeSink;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.YamlSpecReader;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generates random, valid programs for a spec, i.e. to test how the assembler
+ * scales.
+ * <p>
+ * Operands are derived from the assemblyOpTree, one operand format at a time,
+ * the way the matcher reads them: a node picks one of its alternatives,
+ * {@code INT} and {@code HEX} become small numbers and {@code LABEL} a label.
+ * Each derived line is assembled on its own and only lines that assemble are
+ * kept, so programs also respect the field widths of the encodings.
+ * <p>
+ * A program has a .data section of integer, uninitialised and .ascii lines and
+ * a .text section using every operand format that has a valid line, then
+ * random ones. If the grammar allows a label in front of an instruction, every
+ * {@value #LABEL_INTERVAL}th instruction defines one; label operands refer to
+ * labels before and after them and to .data labels.
+ *
+ * @author Eddie Graham
+ */
+@Slf4j
+public class ProgramGenerator {
+	/** Attempts at deriving a valid line for an operand format. */
+	private static final int ATTEMPTS = 200;
+	/** Marks a label operand in a derived line. */
+	private static final char LABEL = '\u0001';
+	/** Instructions per label definition. */
+	public static final int LABEL_INTERVAL = 8;
+	/** Deepest nesting of assemblyOpTree nodes followed when deriving. */
+	private static final int MAX_DEPTH = 16;
+	/** Distinct valid lines kept for an operand format. */
+	private static final int VARIANTS = 8;
+
+	/**
+	 * Usage: {@code [--seed=N] spec.yaml lines output.asm}
+	 */
+	public static void main(String[] args) {
+		var seed = 0L;
+		var optionCount = 0;
+
+		if (args.length > 0 && args[0].startsWith("--seed=")) {
+			seed = Long.parseLong(args[0].substring("--seed=".length()));
+			optionCount++;
+		}
+
+		args = Arrays.copyOfRange(args, optionCount, args.length);
+
+		if (args.length != 3) {
+			log.error("Usage: [--seed=N] spec.yaml lines output.asm");
+			System.exit(1);
+		}
+
+		try (var writer = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+			var generator = new ProgramGenerator(new YamlSpecReader(args[0]).getSpecFile(), seed);
+
+			for (String format : generator.getUnusableFormats()) {
+				log.warn("No valid line found for operand format: " + format);
+			}
+
+			generator.generate(Integer.parseInt(args[1]), writer);
+		} catch (IOException | FileParserException | AssemblerException e) {
+			log.error(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private final Assembler assembler;
+	/** Whether an instruction may be preceded by a label. */
+	private final boolean labelDefinitions;
+	private final int minAdrUnit;
+	private final Random random;
+	/** Words a label must not be: registers, mnemonics and assemblyOpTree names. */
+	private final Set<String> reserved = new HashSet<>();
+	private final SpecFile spec;
+	/** Operand formats for which no valid line was found. */
+	private final List<String> unusableFormats = new ArrayList<>();
+	/** Valid lines of each usable operand format, labels marked. */
+	private final List<List<String>> variants = new ArrayList<>();
+
+	/**
+	 * Compile a spec and find valid lines for its operand formats.
+	 *
+	 * @param spec - Specification to generate programs for.
+	 * @param seed - Seed of the random choices, the same seed gives the same
+	 *             programs.
+	 * @throws AssemblerException if the spec does not compile.
+	 */
+	public ProgramGenerator(SpecFile spec, long seed) throws AssemblerException {
+		this.spec = spec;
+		random = new Random(seed);
+		assembler = new Assembler(CompiledSpec.compile(spec));
+		minAdrUnit = spec.getMinAdrUnit();
+		reserved.addAll(spec.getRegisterHash().keySet());
+		reserved.addAll(spec.getMnemonicTable().keySet());
+		reserved.addAll(spec.getAssemblyOpTree().getAssemblyOpTreeHash().keySet());
+		reserved.addAll(spec.getAssemblyOpTree().getAssemblyOpTreeTokens());
+
+		List<String> mnemonics = new ArrayList<>(spec.getMnemonicTable().keySet());
+		Collections.sort(mnemonics);
+
+		for (String name : mnemonics) {
+			var mnemonic = spec.getMnemonicTable().get(name);
+
+			for (String format : mnemonic.getOperandsFormats()) {
+				var lines = findVariants(mnemonic, format);
+
+				if (lines.isEmpty()) {
+					unusableFormats.add(name + ": " + format);
+				} else {
+					variants.add(lines);
+				}
+			}
+		}
+
+		labelDefinitions = !variants.isEmpty() && assembles(".data", dataLabel(0) + " 1MAU", ".text",
+				textLabel(0) + " " + variants.get(0).get(0).replace(String.valueOf(LABEL), dataLabel(0)));
+	}
+
+	/**
+	 * Generate a program.
+	 *
+	 * @param lines - Number of .data and .text lines, at least one of each.
+	 * @return Lines of the program.
+	 */
+	public List<String> generate(int lines) {
+		List<String> program = new ArrayList<>(lines + 2);
+		var writer = new Writer() {
+			private final StringBuilder line = new StringBuilder();
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void write(char[] buffer, int offset, int length) {
+				for (var i = offset; i < offset + length; i++) {
+					if (buffer[i] == '\n') {
+						program.add(line.toString());
+						line.setLength(0);
+					} else {
+						line.append(buffer[i]);
+					}
+				}
+			}
+		};
+
+		try {
+			generate(lines, writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return program;
+	}
+
+	/**
+	 * Generate a program to a writer, one line at a time, so programs of any
+	 * size can be written to a file.
+	 *
+	 * @param lines  - Number of .data and .text lines, at least one of each.
+	 * @param writer - Receives the program.
+	 */
+	public void generate(int lines, Writer writer) throws IOException {
+		if (variants.isEmpty()) {
+			throw new IllegalStateException("No operand format of the spec has a valid line.");
+		}
+
+		var out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+		var dataLines = Math.max(1, lines / 16);
+		var textLines = Math.max(1, lines - dataLines);
+		var textLabels = labelDefinitions ? (textLines + LABEL_INTERVAL - 1) / LABEL_INTERVAL : 0;
+
+		out.write(".data\n");
+		for (var i = 0; i < dataLines; i++) {
+			out.write(dataLine(dataLabel(i)));
+			out.write('\n');
+		}
+
+		out.write(".text\n");
+		var line = new StringBuilder();
+
+		for (var i = 0; i < textLines; i++) {
+			line.setLength(0);
+
+			if (labelDefinitions && i % LABEL_INTERVAL == 0) {
+				line.append(textLabel(i / LABEL_INTERVAL)).append(' ');
+			}
+
+			// Every format is used once before formats are picked at random
+			var formatVariants = variants.get(i < variants.size() ? i : random.nextInt(variants.size()));
+			var variant = formatVariants.get(random.nextInt(formatVariants.size()));
+
+			for (var c = 0; c < variant.length(); c++) {
+				if (variant.charAt(c) == LABEL) {
+					line.append(labelOperand(dataLines, textLabels));
+				} else {
+					line.append(variant.charAt(c));
+				}
+			}
+
+			out.write(line.toString());
+			out.write('\n');
+		}
+
+		out.flush();
+	}
+
+	/** Operand formats for which no valid line was found, as "mnemonic: format". */
+	public List<String> getUnusableFormats() {
+		return Collections.unmodifiableList(unusableFormats);
+	}
+
+	/** Whether the program assembles. */
+	private boolean assembles(String... program) {
+		try {
+			assembler.assemble(Arrays.asList(program), new NullObjectCodeSink());
+			return true;
+		} catch (AssemblerException e) {
+			return false;
+		}
+	}
+
+	/** Letters for a number, labels must be alphabetic. */
+	private String base26(int n) {
+		var letters = new StringBuilder();
+
+		do {
+			letters.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+
+		return letters.toString();
+	}
+
+	/** Name of a .data label, never a hex number since 't' is no hex digit. */
+	private String dataLabel(int i) {
+		return label("dat" + base26(i));
+	}
+
+	private String dataLine(String label) {
+		switch (random.nextInt(3)) {
+		case 0:
+			var units = 1 + random.nextInt(4);
+			var bits = Math.min(units * minAdrUnit, Integer.SIZE - 1);
+			return label + " " + units + "MAU " + random.nextInt(1 << Math.min(bits, 16));
+		case 1:
+			return label + " " + (1 + random.nextInt(8)) + "MAU";
+		default:
+			return label + " .ascii \"" + word(1 + random.nextInt(12)) + "\"";
+		}
+	}
+
+	/**
+	 * Derive an assembly term from a term of the assemblyOpTree.
+	 *
+	 * @return The text, or null if the derivation nests too deep.
+	 */
+	private String derive(String term, int depth) {
+		if (depth > MAX_DEPTH) {
+			return null;
+		}
+
+		var hash = spec.getAssemblyOpTree().getAssemblyOpTreeHash();
+
+		if (term.length() > 1 && term.startsWith("\"") && term.endsWith("\"")) {
+			return term.replace("\"", "");
+		} else if (hash.containsKey(term)) {
+			var alternatives = hash.get(term);
+			return derive(alternatives.get(random.nextInt(alternatives.size())).trim(), depth + 1);
+		}
+
+		var text = new StringBuilder();
+		var start = 0;
+
+		while (start < term.length()) {
+			var end = start + 1;
+
+			if (Lexer.isAlphaNumeric(term.charAt(start))) {
+				while (end < term.length() && Lexer.isAlphaNumeric(term.charAt(end))) {
+					end++;
+				}
+
+				var part = term.substring(start, end);
+				var derived = hash.containsKey(part) ? derive(part, depth + 1) : word(part);
+
+				if (derived == null) {
+					return null;
+				}
+				text.append(derived);
+			} else {
+				text.append(term.charAt(start));
+			}
+
+			start = end;
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * Derive lines of an operand format until {@link #VARIANTS} distinct ones
+	 * assemble, or {@link #ATTEMPTS} have been made.
+	 */
+	private List<String> findVariants(Mnemonic mnemonic, String format) {
+		Set<String> found = new HashSet<>();
+		List<String> valid = new ArrayList<>();
+		var data = dataLabel(0);
+
+		for (var attempt = 0; attempt < ATTEMPTS && valid.size() < VARIANTS; attempt++) {
+			var line = new StringBuilder();
+			var start = 0;
+
+			while (start < format.length()) {
+				var end = start + 1;
+
+				if (Lexer.isAlphaNumeric(format.charAt(start))) {
+					while (end < format.length() && Lexer.isAlphaNumeric(format.charAt(end))) {
+						end++;
+					}
+
+					var name = format.substring(start, end);
+					var derived = name.equals("mnem") ? mnemonic.getMnemonic() : derive(name, 0);
+
+					if (derived == null) {
+						line = null;
+						break;
+					}
+					line.append(derived);
+				} else {
+					line.append(format.charAt(start));
+				}
+
+				start = end;
+			}
+
+			if (line != null && found.add(line.toString())
+					&& assembles(".data", data + " 1MAU", ".text", line.toString().replace(String.valueOf(LABEL), data))) {
+				valid.add(line.toString());
+			}
+		}
+
+		return valid;
+	}
+
+	/** A label name, moved out of the way of a register or mnemonic. */
+	private String label(String name) {
+		return reserved.contains(name) ? "q" + name : name;
+	}
+
+	/** A label for an operand: a .data label, or a .text label before or after the line. */
+	private String labelOperand(int dataLines, int textLabels) {
+		if (textLabels == 0 || random.nextInt(3) == 0) {
+			return dataLabel(random.nextInt(dataLines));
+		}
+
+		return textLabel(random.nextInt(textLabels));
+	}
+
+	/** Name of a .text label, never a hex number since 'l' is no hex digit. */
+	private String textLabel(int i) {
+		return label("lab" + base26(i));
+	}
+
+	/** Derive a leaf term, see the Word term of the matcher. */
+	private String word(String leaf) {
+		switch (leaf) {
+		case "HEX":
+			var hex = Integer.toHexString(random.nextInt(1 << (1 + random.nextInt(8))));
+			return Character.isDigit(hex.charAt(0)) ? hex : "0" + hex;
+		case "INT":
+			return Integer.toString(random.nextInt(1 << (1 + random.nextInt(8))));
+		case "LABEL":
+			return String.valueOf(LABEL);
+		default:
+			return leaf;
+		}
+	}
+
+	/** Random lowercase letters. */
+	private String word(int length) {
+		var letters = new char[length];
+
+		for (var i = 0; i < length; i++) {
+			letters[i] = (char) ('a' + random.nextInt(26));
+		}
+
+		return new String(letters);
+	}
+}
@@ -0,0 +1,25 @@
+package dk.sar.gasm.ir;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.encode.BitVector;
+import lombok.Getter;
+
+/**
+ * A line of the .data section with its value already encoded.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public class DataStatement extends Statement {
+	private final BitVector payload;
+
+	public DataStatement(int lineNumber, BitVector payload) {
+		super(lineNumber, null);
+		this.payload = payload;
+	}
+
+	public DataStatement(int lineNumber, AssemblerException error) {
+		super(lineNumber, error);
+		this.payload = null;
+	}
+}
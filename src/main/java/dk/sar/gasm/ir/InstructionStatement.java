@@ -0,0 +1,38 @@
+package dk.sar.gasm.ir;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.OperandFormat;
+import dk.sar.gasm.encode.EncodingTemplate;
+import lombok.Getter;
+
+/**
+ * An instruction of the .text section with its mnemonic and operand format
+ * resolved and its operands mapped to the slots of the encoding template.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public class InstructionStatement extends Statement {
+	private final OperandFormat format;
+	private final Mnemonic mnemonic;
+	private final EncodingTemplate template;
+	/** Assembly term of each template term, see {@link EncodingTemplate#mapOperands}. */
+	private final String[] terms;
+	/**
+	 * Type given to each term by the assemblyOpTree ({@code INT}, {@code HEX} or
+	 * {@code LABEL}), null for terms without one. Label references are resolved
+	 * by the second pass.
+	 */
+	private final String[] termTypes;
+
+	public InstructionStatement(int lineNumber, Mnemonic mnemonic, OperandFormat format, EncodingTemplate template,
+			String[] terms, String[] termTypes, AssemblerException error) {
+		super(lineNumber, error);
+		this.mnemonic = mnemonic;
+		this.format = format;
+		this.template = template;
+		this.terms = terms;
+		this.termTypes = termTypes;
+	}
+}
@@ -0,0 +1,28 @@
+package dk.sar.gasm.ir;
+
+import dk.sar.gasm.AssemblerException;
+import lombok.Getter;
+
+/**
+ * A statement of the source, parsed by the first pass.
+ * <p>
+ * Everything that does not depend on symbol addresses is settled when the
+ * statement is built, so the second pass only resolves labels and encodes.
+ * Errors the second pass is responsible for reporting are kept in
+ * {@link #getError()} and raised when the statement is encoded. The source
+ * text is not kept, error messages read the line again.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public abstract class Statement {
+	/** Error to raise when the statement is encoded, null if none. */
+	private final AssemblerException error;
+	/** Line number in the source, starting from 1. */
+	private final int lineNumber;
+
+	protected Statement(int lineNumber, AssemblerException error) {
+		this.lineNumber = lineNumber;
+		this.error = error;
+	}
+}
@@ -0,0 +1,225 @@
+package dk.sar.gasm.lexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.sar.gasm.data.Mnemonic;
+
+/**
+ * The registers and mnemonics of a spec in a perfect hash table, looked up
+ * from a range of a line without taking a substring.
+ * <p>
+ * The table is built by hash and displace: the keywords are hashed into
+ * buckets, and the keywords of each bucket, largest buckets first, are placed
+ * with the first displacement of their hash that puts them in free slots. A
+ * lookup hashes its characters once and compares the one slot they lead to.
+ * <p>
+ * Characters are hashed as {@link String#hashCode()} hashes them, so a lookup
+ * of a whole string takes its cached hash. Keywords with the same string hash
+ * cannot be told apart by a displacement, a table with any is hashed with
+ * FNV-1a instead.
+ *
+ * @author Eddie Graham
+ */
+public final class KeywordTable {
+	/** Keywords per bucket on average. */
+	private static final int BUCKET_SIZE = 4;
+	/** Displacements tried for a bucket before the table is made larger. */
+	private static final int MAX_DISPLACEMENT = 1 << 16;
+
+	private static int bucket(long hash, int buckets) {
+		return (int) ((hash >>> 32) * buckets >>> 32);
+	}
+
+	/** Spread the bits of a hash, see MurmurHash3's finaliser. */
+	private static long mix(long hash) {
+		hash = (hash ^ hash >>> 33) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ hash >>> 33) * 0xC4CEB9FE1A85EC53L;
+		return hash ^ hash >>> 33;
+	}
+
+	/** Slot of a hash with a displacement. */
+	private static int slot(long hash, int displacement, int mask) {
+		return (int) mix(hash + displacement * 0x9E3779B97F4A7C15L) & mask;
+	}
+
+	/** Displacement of each bucket. */
+	private int[] displacements;
+	/** Hash with FNV-1a, some keywords have the same string hash. */
+	private final boolean fnv;
+	/** {@link TokenLine#REGISTER} and {@link TokenLine#MNEMONIC} of each slot. */
+	private int[] flags;
+	private String[] keys;
+	private int mask;
+	private Mnemonic[] mnemonics;
+	/** Encoding of the register of each slot, null if none. */
+	private String[] registers;
+
+	/**
+	 * @param registers - Registers and their encodings, which may be null.
+	 * @param mnemonics - Mnemonics and their data, which may be null.
+	 */
+	public KeywordTable(Map<String, String> registers, Map<String, Mnemonic> mnemonics) {
+		Map<String, Integer> keywords = new LinkedHashMap<>();
+		registers.keySet().forEach(name -> keywords.merge(name, TokenLine.REGISTER, (a, b) -> a | b));
+		mnemonics.keySet().forEach(name -> keywords.merge(name, TokenLine.MNEMONIC, (a, b) -> a | b));
+		fnv = keywords.keySet().stream().mapToInt(String::hashCode).distinct().count() < keywords.size();
+
+		var capacity = Integer.highestOneBit(Math.max(1, keywords.size() * 2 - 1));
+
+		while (!build(keywords.keySet().toArray(new String[0]), capacity)) {
+			capacity *= 2;
+		}
+
+		for (var i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				flags[i] = keywords.get(keys[i]);
+				this.registers[i] = registers.get(keys[i]);
+				this.mnemonics[i] = mnemonics.get(keys[i]);
+			}
+		}
+	}
+
+	/**
+	 * Place the keywords in a table of the given capacity.
+	 *
+	 * @return False if a bucket found no free slots.
+	 */
+	private boolean build(String[] keywords, int capacity) {
+		var bucketCount = Math.max(1, keywords.length / BUCKET_SIZE);
+		List<List<String>> buckets = new ArrayList<>(bucketCount);
+
+		for (var i = 0; i < bucketCount; i++) {
+			buckets.add(new ArrayList<>());
+		}
+
+		for (String keyword : keywords) {
+			buckets.get(bucket(hash(keyword), bucketCount)).add(keyword);
+		}
+
+		Integer[] order = new Integer[bucketCount];
+		Arrays.setAll(order, i -> i);
+		Arrays.sort(order, Comparator.comparingInt(i -> -buckets.get(i).size()));
+
+		displacements = new int[bucketCount];
+		keys = new String[capacity];
+		mask = capacity - 1;
+		var slots = new int[BUCKET_SIZE * 4];
+
+		for (int b : order) {
+			var bucket = buckets.get(b);
+
+			if (bucket.isEmpty()) {
+				break;
+			}
+
+			if (slots.length < bucket.size()) {
+				slots = new int[bucket.size()];
+			}
+
+			var displacement = 0;
+
+			while (!fits(bucket, displacement, slots)) {
+				if (++displacement == MAX_DISPLACEMENT) {
+					return false;
+				}
+			}
+
+			displacements[b] = displacement;
+
+			for (var i = 0; i < bucket.size(); i++) {
+				keys[slots[i]] = bucket.get(i);
+			}
+		}
+
+		flags = new int[capacity];
+		registers = new String[capacity];
+		mnemonics = new Mnemonic[capacity];
+		return true;
+	}
+
+	/**
+	 * {@link TokenLine#REGISTER} and {@link TokenLine#MNEMONIC} of a range of
+	 * characters, 0 if it is neither.
+	 */
+	public int flags(String s, int from, int to) {
+		var slot = find(s, from, to);
+		return slot < 0 ? 0 : flags[slot];
+	}
+
+	/** Slot of a range of characters, -1 if not a keyword. */
+	private int find(String s, int from, int to) {
+		var hash = from == 0 && to == s.length() ? hash(s) : hash(s, from, to);
+		var slot = slot(hash, displacements[bucket(hash, displacements.length)], mask);
+		var key = keys[slot];
+
+		return key != null && key.length() == to - from && s.regionMatches(from, key, 0, key.length()) ? slot : -1;
+	}
+
+	/**
+	 * Whether the slots of a bucket with a displacement are free and distinct.
+	 *
+	 * @param slots - Receives the slots.
+	 */
+	private boolean fits(List<String> bucket, int displacement, int[] slots) {
+		for (var i = 0; i < bucket.size(); i++) {
+			var keyword = bucket.get(i);
+			var slot = slot(hash(keyword), displacement, mask);
+
+			if (keys[slot] != null) {
+				return false;
+			}
+
+			for (var j = 0; j < i; j++) {
+				if (slots[j] == slot) {
+					return false;
+				}
+			}
+
+			slots[i] = slot;
+		}
+
+		return true;
+	}
+
+	private long hash(String s) {
+		return fnv ? hash(s, 0, s.length()) : mix(s.hashCode());
+	}
+
+	/** Hash of a range of characters, the hash of the string of the range. */
+	private long hash(String s, int from, int to) {
+		if (fnv) {
+			var hash = 0xCBF29CE484222325L;
+
+			for (var i = from; i < to; i++) {
+				hash = (hash ^ s.charAt(i)) * 0x100000001B3L;
+			}
+
+			return hash;
+		}
+
+		var hash = 0;
+
+		for (var i = from; i < to; i++) {
+			hash = 31 * hash + s.charAt(i);
+		}
+
+		return mix(hash);
+	}
+
+	/** Mnemonic of a range of characters, null if not a mnemonic. */
+	public Mnemonic mnemonic(String s, int from, int to) {
+		var slot = find(s, from, to);
+		return slot < 0 ? null : mnemonics[slot];
+	}
+
+	/** Encoding of a register, null if not a register. */
+	public String register(String name) {
+		var slot = find(name, 0, name.length());
+		return slot < 0 ? null : registers[slot];
+	}
+}
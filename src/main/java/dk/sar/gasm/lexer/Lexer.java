@@ -0,0 +1,235 @@
+package dk.sar.gasm.lexer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import dk.sar.gasm.data.SpecFile;
+
+/**
+ * Single pass lexer for assembly source lines.
+ * <p>
+ * A line is scanned once into a {@link TokenLine}: comments starting with
+ * {@code ;} are cut off (unless inside a string literal), words are separated
+ * by whitespace, separator commas are trimmed off words and every token is
+ * classified against the registers and mnemonics of the specification, one
+ * lookup of its characters in a {@link KeywordTable}. No regular expressions
+ * are involved.
+ *
+ * @author Eddie Graham
+ */
+public class Lexer {
+
+	/** True if every character is a letter, as {@code [a-zA-Z]*}. */
+	public static boolean isAlpha(CharSequence s, int from, int to) {
+		for (var i = from; i < to; i++) {
+			if (!isLetter(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** True if every character is a letter or digit, as {@code [a-zA-Z0-9]*}. */
+	public static boolean isAlphaNumeric(CharSequence s, int from, int to) {
+		for (var i = from; i < to; i++) {
+			if (!isAlphaNumeric(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static boolean isAlphaNumeric(char c) {
+		return isLetter(c) || isDigit(c);
+	}
+
+	public static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * True if the characters are a hexadecimal number that fits a signed long,
+	 * as accepted by {@link Long#parseLong(String, int)} with radix 16.
+	 */
+	public static boolean isHexNumber(CharSequence s, int from, int to) {
+		if (from >= to) {
+			return false;
+		}
+
+		var negative = false;
+		var c = s.charAt(from);
+
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			from++;
+			if (from == to) {
+				return false;
+			}
+		}
+
+		long value = 0;
+		var significantDigits = 0;
+
+		for (var i = from; i < to; i++) {
+			var digit = Character.digit(s.charAt(i), 16);
+
+			if (digit < 0) {
+				return false;
+			}
+
+			if (value != 0 || digit != 0) {
+				if (++significantDigits > 16) {
+					return false;
+				}
+			}
+
+			value = value << 4 | digit;
+		}
+
+		// Compare unsigned against 2^63 - 1, or 2^63 when negative
+		return Long.compareUnsigned(value, negative ? Long.MIN_VALUE : Long.MAX_VALUE) <= 0;
+	}
+
+	public static boolean isLetter(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	/** True if every character is a digit, as {@code [0-9]*}. */
+	public static boolean isNumeric(CharSequence s, int from, int to) {
+		for (var i = from; i < to; i++) {
+			if (!isDigit(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c <= ' ';
+	}
+
+	/** Names without values, for a {@link KeywordTable} of names only. */
+	private static <V> Map<String, V> names(Set<String> names) {
+		Map<String, V> map = new HashMap<>();
+		names.forEach(name -> map.put(name, null));
+		return map;
+	}
+
+	private final KeywordTable keywords;
+
+	public Lexer(KeywordTable keywords) {
+		this.keywords = keywords;
+	}
+
+	public Lexer(Set<String> registers, Set<String> mnemonics) {
+		this(new KeywordTable(names(registers), names(mnemonics)));
+	}
+
+	public Lexer(SpecFile spec) {
+		this(new KeywordTable(spec.getRegisterHash(), spec.getMnemonicTable()));
+	}
+
+	public KeywordTable getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * Split a source line into tokens.
+	 *
+	 * @param line - Source line.
+	 * @return The tokens of the line, empty for blank and comment lines.
+	 */
+	public TokenLine tokenize(String line) {
+		var tokens = new TokenLine(line);
+		var length = line.length();
+		var i = 0;
+
+		while (i < length) {
+			var c = line.charAt(i);
+
+			if (isWhitespace(c)) {
+				i++;
+				continue;
+			}
+
+			if (c == ';') {
+				break;
+			}
+
+			var rawStart = i;
+
+			if (c == '"') {
+				i++;
+				while (i < length && line.charAt(i) != '"') {
+					i++;
+				}
+				i = Math.min(i + 1, length);
+				tokens.add(rawStart, i, rawStart, i, TokenKind.STRING, 0);
+				continue;
+			}
+
+			while (i < length && !isWhitespace(line.charAt(i)) && line.charAt(i) != ';') {
+				i++;
+			}
+
+			var rawEnd = i;
+			var start = rawStart;
+			var end = rawEnd;
+
+			while (start < end && line.charAt(start) == ',') {
+				start++;
+			}
+			while (end > start && line.charAt(end - 1) == ',') {
+				end--;
+			}
+
+			if (start == end) {
+				tokens.add(rawStart, rawEnd, start, end, TokenKind.PUNCTUATION, 0);
+			} else {
+				classify(tokens, line, rawStart, rawEnd, start, end);
+			}
+		}
+
+		return tokens;
+	}
+
+	private void classify(TokenLine tokens, String line, int rawStart, int rawEnd, int start, int end) {
+		var flags = 0;
+
+		if (isAlpha(line, start, end)) {
+			flags |= TokenLine.ALPHA;
+		}
+		if (isNumeric(line, start, end)) {
+			flags |= TokenLine.NUMERIC;
+		}
+		if ((flags & (TokenLine.ALPHA | TokenLine.NUMERIC)) != 0 || isAlphaNumeric(line, start, end)) {
+			flags |= TokenLine.ALPHANUMERIC;
+		}
+		if (isHexNumber(line, start, end)) {
+			flags |= TokenLine.HEX_NUMBER;
+		}
+
+		flags |= keywords.flags(line, start, end);
+
+		TokenKind kind;
+
+		if ((flags & TokenLine.REGISTER) != 0) {
+			kind = TokenKind.REGISTER;
+		} else if ((flags & TokenLine.MNEMONIC) != 0) {
+			kind = TokenKind.MNEMONIC;
+		} else if (line.charAt(start) == '.') {
+			kind = TokenKind.DIRECTIVE;
+		} else if ((flags & TokenLine.NUMERIC) != 0) {
+			kind = TokenKind.INT;
+		} else if ((flags & TokenLine.ALPHA) != 0) {
+			kind = TokenKind.LABEL;
+		} else if ((flags & TokenLine.HEX_NUMBER) != 0) {
+			kind = TokenKind.HEX;
+		} else {
+			kind = TokenKind.OTHER;
+		}
+
+		tokens.add(rawStart, rawEnd, start, end, kind, flags);
+	}
+}
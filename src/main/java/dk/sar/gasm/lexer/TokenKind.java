@@ -0,0 +1,23 @@
+package dk.sar.gasm.lexer;
+
+/** Classification of a token of a source line. */
+public enum TokenKind {
+	/** Section header or directive, i.e. {@code .data} or {@code .ascii}. */
+	DIRECTIVE,
+	/** Hexadecimal number that is not also a decimal or a label, i.e. {@code 1F}. */
+	HEX,
+	/** Decimal number. */
+	INT,
+	/** Alphabetic word that is not a register or mnemonic. */
+	LABEL,
+	/** Mnemonic declared in the specification. */
+	MNEMONIC,
+	/** Any other token, i.e. {@code [ebp+1]} or {@code #200}. */
+	OTHER,
+	/** Separator commas standing on their own. */
+	PUNCTUATION,
+	/** Register declared in the specification. */
+	REGISTER,
+	/** String literal in double quotes. */
+	STRING
+}
@@ -0,0 +1,170 @@
+package dk.sar.gasm.lexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * A source line split into tokens by {@link Lexer}.
+ * <p>
+ * Tokens are whitespace separated words and string literals, stored as column
+ * ranges into the line. The raw range of a word includes the separator commas
+ * attached to it, i.e. {@code eax,}; the token range excludes them. Words made
+ * of commas only are {@link TokenKind#PUNCTUATION} tokens.
+ *
+ * @author Eddie Graham
+ */
+public class TokenLine {
+	/** Set if the token consists of letters only. */
+	public static final int ALPHA = 1;
+	/** Set if the token consists of letters and digits only. */
+	public static final int ALPHANUMERIC = 2;
+	/** Set if the token is a valid hexadecimal number. */
+	public static final int HEX_NUMBER = 4;
+	/** Set if the token is a declared mnemonic. */
+	public static final int MNEMONIC = 8;
+	/** Set if the token consists of digits only. */
+	public static final int NUMERIC = 16;
+	/** Set if the token is a declared register. */
+	public static final int REGISTER = 32;
+
+	/** Column after the last token, before any comment. */
+	@Getter
+	private int contentEnd;
+	/** Column of the first token. */
+	@Getter
+	private int contentStart;
+	private int[] ends;
+	private int[] flags;
+	private TokenKind[] kinds;
+	@Getter
+	private final String line;
+	private List<String> operandTokens;
+	private int[] rawEnds;
+	private int[] rawStarts;
+	private int size;
+	private int[] starts;
+	private String[] texts;
+
+	TokenLine(String line) {
+		this.line = line;
+		var capacity = 8;
+		starts = new int[capacity];
+		ends = new int[capacity];
+		rawStarts = new int[capacity];
+		rawEnds = new int[capacity];
+		flags = new int[capacity];
+		kinds = new TokenKind[capacity];
+	}
+
+	/** The line with comment and surrounding whitespace removed. */
+	public String content() {
+		return line.substring(contentStart, contentEnd);
+	}
+
+	/** True if the content of the line equals the given text. */
+	public boolean contentEquals(String text) {
+		return contentEnd - contentStart == text.length() && line.startsWith(text, contentStart);
+	}
+
+	/** Column after token i, separator commas excluded. */
+	public int end(int i) {
+		return ends[i];
+	}
+
+	/** Classification flags of token i, see {@link #ALPHA} etc. */
+	public int flags(int i) {
+		return flags[i];
+	}
+
+	/** True if the token has all the given flags. */
+	public boolean is(int i, int flag) {
+		return (flags[i] & flag) == flag;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public TokenKind kind(int i) {
+		return kinds[i];
+	}
+
+	/**
+	 * Tokens that take part in matching the assemblyOpTree: every token but
+	 * {@link TokenKind#PUNCTUATION}, separator commas removed.
+	 */
+	public List<String> operandTokens() {
+		if (operandTokens == null) {
+			operandTokens = new ArrayList<>(size);
+			for (var i = 0; i < size; i++) {
+				if (kinds[i] != TokenKind.PUNCTUATION) {
+					operandTokens.add(text(i));
+				}
+			}
+		}
+		return operandTokens;
+	}
+
+	/** Column after token i including attached separator commas. */
+	public int rawEnd(int i) {
+		return rawEnds[i];
+	}
+
+	/** Column of token i including attached separator commas. */
+	public int rawStart(int i) {
+		return rawStarts[i];
+	}
+
+	/** Token i including attached separator commas. */
+	public String rawText(int i) {
+		return line.substring(rawStarts[i], rawEnds[i]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Column of token i, separator commas excluded. */
+	public int start(int i) {
+		return starts[i];
+	}
+
+	/** Token i, separator commas excluded. */
+	public String text(int i) {
+		if (texts == null) {
+			texts = new String[size];
+		}
+		if (texts[i] == null) {
+			texts[i] = line.substring(starts[i], ends[i]);
+		}
+		return texts[i];
+	}
+
+	void add(int rawStart, int rawEnd, int start, int end, TokenKind kind, int tokenFlags) {
+		if (size == starts.length) {
+			var capacity = size * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			rawStarts = Arrays.copyOf(rawStarts, capacity);
+			rawEnds = Arrays.copyOf(rawEnds, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			kinds = Arrays.copyOf(kinds, capacity);
+		}
+
+		if (size == 0) {
+			contentStart = rawStart;
+		}
+		contentEnd = rawEnd;
+
+		rawStarts[size] = rawStart;
+		rawEnds[size] = rawEnd;
+		starts[size] = start;
+		ends[size] = end;
+		kinds[size] = kind;
+		flags[size] = tokenFlags;
+		size++;
+	}
+}
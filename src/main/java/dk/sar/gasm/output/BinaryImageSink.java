@@ -0,0 +1,98 @@
+package dk.sar.gasm.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a raw binary image: byte {@code 0} of the file is the byte at the
+ * base address, bytes between records are set to a fill value. Records are
+ * appended through a buffer; a record overlapping bytes already written
+ * overwrites them in place.
+ *
+ * @author Eddie Graham
+ */
+public class BinaryImageSink extends ByteImageSink {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Byte address of byte 0 of the image. */
+	private final long base;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final FileChannel channel;
+	private final byte fill;
+	/** Image offset of the first byte of the buffer. */
+	private long flushed;
+
+	/** An image starting at address 0, gaps filled with {@code 0xFF}. */
+	public BinaryImageSink(Path file) throws IOException {
+		this(file, 0, (byte) 0xFF);
+	}
+
+	/**
+	 * @param file - File to write, truncated if it exists.
+	 * @param base - Byte address of byte 0 of the image.
+	 * @param fill - Value of bytes between records.
+	 */
+	public BinaryImageSink(Path file, long base, byte fill) throws IOException {
+		this.base = base;
+		this.fill = fill;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	protected void writeBytes(long address, byte[] bytes) throws IOException {
+		if (address < base) {
+			throw new IOException("Address " + Long.toHexString(address) + " is below the image base "
+					+ Long.toHexString(base) + ".");
+		}
+
+		var offset = address - base;
+		var end = flushed + buffer.position();
+
+		if (offset < end) {
+			flush();
+			var source = ByteBuffer.wrap(bytes);
+			while (source.hasRemaining()) {
+				channel.write(source, offset + source.position());
+			}
+			flushed = Math.max(end, offset + bytes.length);
+			return;
+		}
+
+		for (; end < offset; end++) {
+			put(fill);
+		}
+
+		for (byte b : bytes) {
+			put(b);
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, flushed + buffer.position());
+		}
+		flushed += buffer.limit();
+		buffer.clear();
+	}
+
+	private void put(byte b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put(b);
+	}
+}
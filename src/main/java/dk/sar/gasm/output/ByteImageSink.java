@@ -0,0 +1,47 @@
+package dk.sar.gasm.output;
+
+import java.io.IOException;
+
+/**
+ * Base of the sinks that write a memory image rather than text.
+ * <p>
+ * Records are laid out in bytes: every minimum addressable unit takes
+ * {@link ObjectCodeSink#unitBytes(int)} bytes, ordered by the spec's
+ * {@code endian} within the unit, so address {@code a} starts at byte
+ * {@code a * unitBytes}. Units narrower than a byte take a byte each.
+ *
+ * @author Eddie Graham
+ */
+public abstract class ByteImageSink implements ObjectCodeSink {
+	private boolean littleEndian;
+	private int unitBytes = 1;
+
+	@Override
+	public void open(int minAdrUnit, String endian) throws IOException {
+		unitBytes = ObjectCodeSink.unitBytes(minAdrUnit);
+		littleEndian = "little".equals(endian);
+	}
+
+	@Override
+	public void write(int address, byte[] units) throws IOException {
+		if (littleEndian && unitBytes > 1) {
+			for (var start = 0; start < units.length; start += unitBytes) {
+				for (int i = start, j = start + unitBytes - 1; i < j; i++, j--) {
+					var b = units[i];
+					units[i] = units[j];
+					units[j] = b;
+				}
+			}
+		}
+
+		writeBytes((address & 0xFFFFFFFFL) * unitBytes, units);
+	}
+
+	/**
+	 * Write the bytes of a record.
+	 *
+	 * @param address - Byte address of the first byte.
+	 * @param bytes   - Bytes in memory order.
+	 */
+	protected abstract void writeBytes(long address, byte[] bytes) throws IOException;
+}
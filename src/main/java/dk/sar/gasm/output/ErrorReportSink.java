@@ -0,0 +1,47 @@
+package dk.sar.gasm.output;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Passes records on to another sink and writes the error report to a text
+ * file, for the formats that have no place for it.
+ *
+ * @author Eddie Graham
+ */
+public class ErrorReportSink implements ObjectCodeSink {
+	private final ObjectCodeSink delegate;
+	private final Path reportFile;
+
+	/**
+	 * @param delegate   - Sink receiving the records, closed with this sink.
+	 * @param reportFile - File the error report is written to.
+	 */
+	public ErrorReportSink(ObjectCodeSink delegate, Path reportFile) {
+		this.delegate = delegate;
+		this.reportFile = reportFile;
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public void error(String message) throws IOException {
+		delegate.error(message);
+		Files.write(reportFile, (message + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public void open(int minAdrUnit, String endian) throws IOException {
+		delegate.open(minAdrUnit, endian);
+	}
+
+	@Override
+	public void write(int address, byte[] units) throws IOException {
+		delegate.write(address, units);
+	}
+}
@@ -0,0 +1,53 @@
+package dk.sar.gasm.output;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the text listing ({@link ObjectCodeListing}) to a file as records
+ * arrive, through a buffered writer. Errors are written as they would be to
+ * {@code object_code.txt}, after the records before them.
+ *
+ * @author Eddie Graham
+ */
+public class FileObjectCodeSink implements ObjectCodeSink {
+	private final StringBuilder line = new StringBuilder();
+	private int minAdrUnit;
+	private final Writer writer;
+
+	public FileObjectCodeSink(Path file) throws IOException {
+		this(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+	}
+
+	public FileObjectCodeSink(Writer writer) {
+		this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	@Override
+	public void error(String message) throws IOException {
+		writer.write(message);
+		writer.write('\n');
+	}
+
+	@Override
+	public void open(int minAdrUnit, String endian) {
+		this.minAdrUnit = minAdrUnit;
+	}
+
+	@Override
+	public void write(int address, byte[] units) throws IOException {
+		line.setLength(0);
+		ObjectCodeListing.appendLine(line, minAdrUnit, address, units);
+		line.append('\n');
+		writer.append(line);
+	}
+}
@@ -0,0 +1,135 @@
+package dk.sar.gasm.output;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Base of the line-oriented hex formats. Contiguous bytes are collected into
+ * data records of at most {@code recordLength} bytes, and each line is
+ * encoded into a byte buffer before it is written.
+ *
+ * @author Eddie Graham
+ */
+public abstract class HexRecordSink extends ByteImageSink {
+	private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+	private int checksum;
+	private final byte[] data;
+	private long dataAddress;
+	private int dataLength;
+	private byte[] line = new byte[80];
+	private int lineLength;
+	private final OutputStream out;
+
+	protected HexRecordSink(OutputStream out, int recordLength) {
+		if (recordLength < 1 || recordLength > 250) {
+			throw new IllegalArgumentException("Record length " + recordLength + " is not in 1..250.");
+		}
+		this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out);
+		data = new byte[recordLength];
+	}
+
+	protected HexRecordSink(Path file, int recordLength) throws IOException {
+		this(Files.newOutputStream(file), recordLength);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushData();
+			writeEnd();
+			out.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Append a byte to the line as two hex digits and add it to the checksum. */
+	protected void appendByte(int b) {
+		ensureLine(2);
+		line[lineLength++] = HEX_DIGITS[(b >> 4) & 0xF];
+		line[lineLength++] = HEX_DIGITS[b & 0xF];
+		checksum += b & 0xFF;
+	}
+
+	/** Append the low {@code bytes} bytes of a value, most significant first. */
+	protected void appendBytes(long value, int bytes) {
+		for (var i = bytes - 1; i >= 0; i--) {
+			appendByte((int) (value >>> (i * 8)));
+		}
+	}
+
+	/** Append a character that is not part of the checksum. */
+	protected void appendChar(char c) {
+		ensureLine(1);
+		line[lineLength++] = (byte) c;
+	}
+
+	/** Sum of the bytes appended since the line was started. */
+	protected int checksum() {
+		return checksum;
+	}
+
+	/**
+	 * Close the stream without writing the collected data or the end, i.e.
+	 * when a constructor of a subclass fails after opening a file.
+	 */
+	protected void discard() throws IOException {
+		out.close();
+	}
+
+	/** Terminate the current line and write it. */
+	protected void endLine() throws IOException {
+		appendChar('\n');
+		out.write(line, 0, lineLength);
+		lineLength = 0;
+		checksum = 0;
+	}
+
+	/**
+	 * Whether a data record may not continue across the given address, for
+	 * formats addressing memory in segments.
+	 */
+	protected boolean startsSegment(long address) {
+		return false;
+	}
+
+	/** Write one data record. */
+	protected abstract void writeData(long address, byte[] data, int length) throws IOException;
+
+	/** Write the records that end the file. */
+	protected abstract void writeEnd() throws IOException;
+
+	@Override
+	protected void writeBytes(long address, byte[] bytes) throws IOException {
+		for (var i = 0; i < bytes.length; i++, address++) {
+			if (dataLength > 0 && (dataLength == data.length || address != dataAddress + dataLength
+					|| startsSegment(address))) {
+				flushData();
+			}
+			if (dataLength == 0) {
+				dataAddress = address;
+			}
+			data[dataLength++] = bytes[i];
+		}
+	}
+
+	private void ensureLine(int n) {
+		if (lineLength + n > line.length) {
+			var grown = new byte[line.length * 2];
+			System.arraycopy(line, 0, grown, 0, lineLength);
+			line = grown;
+		}
+	}
+
+	private void flushData() throws IOException {
+		if (dataLength > 0) {
+			writeData(dataAddress, data, dataLength);
+			dataLength = 0;
+		}
+	}
+}
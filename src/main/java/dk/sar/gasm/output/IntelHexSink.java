@@ -0,0 +1,69 @@
+package dk.sar.gasm.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Writes Intel HEX: data records (type 00) within 64 KB segments, an extended
+ * linear address record (type 04) whenever the upper 16 address bits change,
+ * and an end of file record (type 01).
+ *
+ * @author Eddie Graham
+ */
+public class IntelHexSink extends HexRecordSink {
+	private static final long MAX_ADDRESS = 0xFFFFFFFFL;
+
+	private long segment;
+
+	public IntelHexSink(OutputStream out) {
+		super(out, 16);
+	}
+
+	public IntelHexSink(Path file) throws IOException {
+		super(file, 16);
+	}
+
+	@Override
+	protected boolean startsSegment(long address) {
+		return (address & 0xFFFF) == 0;
+	}
+
+	@Override
+	protected void writeData(long address, byte[] data, int length) throws IOException {
+		if (address + length - 1 > MAX_ADDRESS) {
+			throw new IOException("Address " + Long.toHexString(address) + " does not fit in Intel HEX.");
+		}
+
+		if (address >>> 16 != segment) {
+			segment = address >>> 16;
+			startRecord(2, 0, 0x04);
+			appendBytes(segment, 2);
+			endRecord();
+		}
+
+		startRecord(length, address & 0xFFFF, 0x00);
+		for (var i = 0; i < length; i++) {
+			appendByte(data[i]);
+		}
+		endRecord();
+	}
+
+	@Override
+	protected void writeEnd() throws IOException {
+		startRecord(0, 0, 0x01);
+		endRecord();
+	}
+
+	private void endRecord() throws IOException {
+		appendByte(-checksum());
+		endLine();
+	}
+
+	private void startRecord(int length, long offset, int type) {
+		appendChar(':');
+		appendByte(length);
+		appendBytes(offset, 2);
+		appendByte(type);
+	}
+}
@@ -0,0 +1,75 @@
+package dk.sar.gasm.output;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Keeps the records of a run in memory. Listing lines are only built when
+ * asked for by {@link #getLines()}.
+ *
+ * @author Eddie Graham
+ */
+public class MemoryObjectCodeSink implements ObjectCodeSink {
+	private int[] addresses = new int[64];
+	/** Error report of a failed run, null if none. */
+	@Getter
+	private String error;
+	@Getter
+	private int minAdrUnit;
+	private final List<byte[]> records = new ArrayList<>();
+
+	@Override
+	public void error(String message) {
+		error = message;
+	}
+
+	/** Address of record i. */
+	public int getAddress(int i) {
+		return addresses[i];
+	}
+
+	/**
+	 * The text listing of the records followed by the error report, as written
+	 * to {@code object_code.txt}.
+	 */
+	public List<String> getLines() {
+		List<String> lines = new ArrayList<>(records.size() + 1);
+
+		for (var i = 0; i < records.size(); i++) {
+			lines.add(ObjectCodeListing.line(minAdrUnit, addresses[i], records.get(i)));
+		}
+
+		if (error != null) {
+			lines.add(error);
+		}
+
+		return lines;
+	}
+
+	/** Units of record i, see {@link ObjectCodeSink}. */
+	public byte[] getUnits(int i) {
+		return records.get(i);
+	}
+
+	@Override
+	public void open(int minAdrUnit, String endian) {
+		this.minAdrUnit = minAdrUnit;
+	}
+
+	public int size() {
+		return records.size();
+	}
+
+	@Override
+	public void write(int address, byte[] units) {
+		if (records.size() == addresses.length) {
+			addresses = Arrays.copyOf(addresses, addresses.length * 2);
+		}
+
+		addresses[records.size()] = address;
+		records.add(units);
+	}
+}
@@ -0,0 +1,13 @@
+package dk.sar.gasm.output;
+
+/**
+ * Discards the object code, i.e. to check a source or time the assembler.
+ *
+ * @author Eddie Graham
+ */
+public class NullObjectCodeSink implements ObjectCodeSink {
+
+	@Override
+	public void write(int address, byte[] units) {
+	}
+}
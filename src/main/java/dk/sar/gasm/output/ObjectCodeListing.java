@@ -0,0 +1,71 @@
+package dk.sar.gasm.output;
+
+/**
+ * The text listing of object code: one line per statement, the address in
+ * hex followed by every unit in hex, i.e.
+ *
+ * <pre>
+ * 1a:        EB E8
+ * </pre>
+ *
+ * @author Eddie Graham
+ */
+public final class ObjectCodeListing {
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Append the listing line of a record, without line separator.
+	 *
+	 * @param line       - Line to append to.
+	 * @param minAdrUnit - Bits of a minimum addressable unit.
+	 * @param address    - Address of the record.
+	 * @param units      - Units of the record, see {@link ObjectCodeSink}.
+	 */
+	public static void appendLine(StringBuilder line, int minAdrUnit, int address, byte[] units) {
+		var start = line.length();
+		line.append(Integer.toHexString(address)).append(':');
+
+		while (line.length() - start < 10) {
+			line.append(' ');
+		}
+
+		line.append(' ');
+
+		var unitBytes = ObjectCodeSink.unitBytes(minAdrUnit);
+		var noOfHexCharacters = minAdrUnit / 8 * 2;
+
+		for (var i = 0; i < units.length; i += unitBytes) {
+			long unit = 0;
+
+			for (var b = 0; b < unitBytes; b++) {
+				unit = unit << 8 | units[i + b] & 0xFF;
+			}
+
+			appendHex(line, unit, noOfHexCharacters);
+		}
+	}
+
+	/** The listing line of a record, see {@link #appendLine}. */
+	public static String line(int minAdrUnit, int address, byte[] units) {
+		var line = new StringBuilder(12 + units.length * 3);
+		appendLine(line, minAdrUnit, address, units);
+		return line.toString();
+	}
+
+	private static void appendHex(StringBuilder line, long unit, int noOfHexCharacters) {
+		var digits = unit == 0 ? 1 : (Long.SIZE - Long.numberOfLeadingZeros(unit) + 3) / 4;
+
+		for (var i = digits; i < noOfHexCharacters; i++) {
+			line.append('0');
+		}
+
+		for (var i = digits - 1; i >= 0; i--) {
+			line.append(HEX_DIGITS[(int) (unit >>> i * 4) & 0xF]);
+		}
+
+		line.append(' ');
+	}
+
+	private ObjectCodeListing() {
+	}
+}
@@ -0,0 +1,52 @@
+package dk.sar.gasm.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the object code of an assembly run as it is produced.
+ * <p>
+ * Every statement is passed as one record: its address and its minimum
+ * addressable units in address order, the spec's {@code endian} already
+ * applied. Each unit takes {@link #unitBytes(int)} bytes, most significant
+ * byte first, its value right-aligned. The sink is owned by the caller, the
+ * assembler does not close it.
+ *
+ * @author Eddie Graham
+ */
+public interface ObjectCodeSink extends Closeable {
+
+	/** Bytes taken by one minimum addressable unit of the given width. */
+	static int unitBytes(int minAdrUnit) {
+		return (minAdrUnit + 7) / 8;
+	}
+
+	@Override
+	default void close() throws IOException {
+	}
+
+	/**
+	 * The run failed. Records written before the error stay valid.
+	 *
+	 * @param message - Error report, may span several lines.
+	 */
+	default void error(String message) throws IOException {
+	}
+
+	/**
+	 * Called once before any record or error.
+	 *
+	 * @param minAdrUnit - Bits of a minimum addressable unit.
+	 * @param endian     - Endian of the spec, "big" or "little".
+	 */
+	default void open(int minAdrUnit, String endian) throws IOException {
+	}
+
+	/**
+	 * A statement encoded at an address.
+	 *
+	 * @param address - Address in minimum addressable units.
+	 * @param units   - Encoded units, owned by the sink from now on.
+	 */
+	void write(int address, byte[] units) throws IOException;
+}
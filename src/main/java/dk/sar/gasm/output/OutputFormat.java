@@ -0,0 +1,70 @@
+package dk.sar.gasm.output;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The object code formats the assembler can write.
+ *
+ * @author Eddie Graham
+ */
+public enum OutputFormat {
+	/** Raw binary image, gaps filled. */
+	BINARY("bin", "bin"),
+	/** Intel HEX. */
+	INTEL_HEX("ihex", "hex"),
+	/** The {@code "%-10s %s"} text listing. */
+	LISTING("listing", "txt"),
+	/** Motorola S-records. */
+	SRECORD("srec", "srec");
+
+	/** Extension of the file written by default. */
+	private final String extension;
+	/** Name of the format on the command line. */
+	private final String name;
+
+	OutputFormat(String name, String extension) {
+		this.name = name;
+		this.extension = extension;
+	}
+
+	/**
+	 * @param name - Command line name of a format.
+	 * @return The format, or null if there is none by that name.
+	 */
+	public static OutputFormat forName(String name) {
+		for (var format : values()) {
+			if (format.name.equals(name)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Open a sink writing this format to a file.
+	 *
+	 * @param file - File to write, truncated if it exists.
+	 * @param fill - Value of the gaps in a binary image.
+	 */
+	public ObjectCodeSink open(Path file, byte fill) throws IOException {
+		switch (this) {
+		case BINARY:
+			return new BinaryImageSink(file, 0, fill);
+		case INTEL_HEX:
+			return new IntelHexSink(file);
+		case SRECORD:
+			return new SRecordSink(file);
+		default:
+			return new FileObjectCodeSink(file);
+		}
+	}
+}
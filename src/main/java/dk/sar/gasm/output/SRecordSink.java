@@ -0,0 +1,111 @@
+package dk.sar.gasm.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Writes Motorola S-records: an S0 header, S1, S2 or S3 data records using the
+ * shortest address that fits each record, an S5 or S6 record count, and the
+ * S9, S8 or S7 termination matching the longest address used.
+ *
+ * @author Eddie Graham
+ */
+public class SRecordSink extends HexRecordSink {
+	private static final long MAX_ADDRESS = 0xFFFFFFFFL;
+
+	private int addressBytes = 2;
+	private long count;
+	private final String header;
+
+	public SRecordSink(OutputStream out) throws IOException {
+		this(out, "");
+	}
+
+	/**
+	 * @param out    - Stream to write to.
+	 * @param header - Text of the S0 header record.
+	 */
+	public SRecordSink(OutputStream out, String header) throws IOException {
+		super(out, 16);
+		this.header = header;
+		writeHeader();
+	}
+
+	public SRecordSink(Path file) throws IOException {
+		super(file, 16);
+		header = "";
+
+		try {
+			writeHeader();
+		} catch (IOException | RuntimeException e) {
+			try {
+				discard();
+			} catch (IOException io) {
+				e.addSuppressed(io);
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	protected void writeData(long address, byte[] data, int length) throws IOException {
+		var last = address + length - 1;
+
+		if (last > MAX_ADDRESS) {
+			throw new IOException("Address " + Long.toHexString(address) + " does not fit in an S-record.");
+		}
+
+		var bytes = last > 0xFFFFFF ? 4 : last > 0xFFFF ? 3 : 2;
+		addressBytes = Math.max(addressBytes, bytes);
+
+		startRecord(bytes - 1, bytes + length + 1);
+		appendBytes(address, bytes);
+		for (var i = 0; i < length; i++) {
+			appendByte(data[i]);
+		}
+		endRecord();
+		count++;
+	}
+
+	@Override
+	protected void writeEnd() throws IOException {
+		if (count <= 0xFFFF) {
+			startRecord(5, 3);
+			appendBytes(count, 2);
+			endRecord();
+		} else if (count <= 0xFFFFFF) {
+			startRecord(6, 4);
+			appendBytes(count, 3);
+			endRecord();
+		}
+
+		startRecord(11 - addressBytes, addressBytes + 1);
+		appendBytes(0, addressBytes);
+		endRecord();
+	}
+
+	private void endRecord() throws IOException {
+		appendByte(~checksum());
+		endLine();
+	}
+
+	private void startRecord(int type, int length) {
+		appendChar('S');
+		appendChar((char) ('0' + type));
+		appendByte(length);
+	}
+
+	private void writeHeader() throws IOException {
+		var text = header.getBytes(StandardCharsets.US_ASCII);
+		var length = Math.min(text.length, 250);
+
+		startRecord(0, length + 3);
+		appendBytes(0, 2);
+		for (var i = 0; i < length; i++) {
+			appendByte(text[i]);
+		}
+		endRecord();
+	}
+}
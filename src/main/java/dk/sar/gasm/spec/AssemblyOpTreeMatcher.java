@@ -0,0 +1,571 @@
+package dk.sar.gasm.spec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.data.AssemblyOpTree;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.lexer.KeywordTable;
+import dk.sar.gasm.lexer.Lexer;
+import lombok.Value;
+
+/**
+ * The assemblyOpTree of a specification compiled into a matcher.
+ * <p>
+ * The tree is resolved once, when the matcher is compiled: productions are
+ * split into elements, nodes are linked to their alternatives and composite
+ * terms such as {@code [reg+imm]} are split into their parts. Matching a source
+ * line then never re-tokenizes the grammar.
+ * <p>
+ * Each assembly token is matched against the elements of a root production in
+ * order. Optional ({@code ?}) and repeated ({@code *}) elements may be skipped,
+ * and {@code x+} is expanded to {@code x x*}. Failed (token, element) states are
+ * memoized, so a line is matched in time linear in its number of tokens.
+ *
+ * @author Eddie Graham
+ */
+public class AssemblyOpTreeMatcher {
+
+	/**
+	 * The result of matching a line: one path per assembly token, and the type
+	 * (INT, HEX or LABEL) of every term classified along the way.
+	 */
+	@Value
+	public static class Match {
+		/** (token, element) derivations explored over all productions tried. */
+		int explored;
+		List<List<String>> paths;
+		Map<String, String> termTypes;
+	}
+
+	private enum Quantifier {
+		ONE, OPTIONAL, REPEATED
+	}
+
+	private static final class Element {
+		private final Quantifier quantifier;
+		private final Term term;
+
+		private Element(Term term, Quantifier quantifier) {
+			this.term = term;
+			this.quantifier = quantifier;
+		}
+	}
+
+	/** Quoted literal, i.e. {@code "eax"}. */
+	private static final class Literal extends Term {
+		private final String text;
+
+		private Literal(String text) {
+			super(null);
+			this.text = text;
+		}
+
+		@Override
+		boolean derive(String token, List<String> path, List<String> types) {
+			return text.equals(token);
+		}
+
+		@Override
+		boolean matches(String token, List<String> types) {
+			return text.equals(token);
+		}
+	}
+
+	/**
+	 * State for matching a single line against a single production.
+	 */
+	private static final class LineMatch {
+		/** A rows by columns table of lists, all null. */
+		@SuppressWarnings("unchecked")
+		private static List<String>[][] table(int rows, int columns) {
+			return (List<String>[][]) new List<?>[rows][columns];
+		}
+
+		private final int[] chosen;
+		private final List<String>[][] derivations;
+		private int explored;
+		private final boolean[][] failed;
+		private final Element[] production;
+		private final List<String> tokens;
+		private final List<String>[][] types;
+
+		private LineMatch(Element[] production, List<String> tokens) {
+			this.production = production;
+			this.tokens = tokens;
+			this.chosen = new int[tokens.size()];
+			this.failed = new boolean[tokens.size()][production.length + 1];
+			this.derivations = table(production.length, tokens.size());
+			this.types = table(production.length, tokens.size());
+		}
+
+		private List<String> derivation(int element, int token) {
+			var path = derivations[element][token];
+
+			if (path == null) {
+				var assemblyTerm = tokens.get(token);
+				var e = production[element];
+				List<String> termTypes = new ArrayList<>();
+				path = new ArrayList<>();
+				explored++;
+
+				if (e.quantifier == Quantifier.OPTIONAL) {
+					path.add("?");
+				}
+
+				if (e.term.pathName != null) {
+					path.add(e.term.pathName);
+				}
+
+				if (e.term.derive(assemblyTerm, path, termTypes)) {
+					if (!path.contains(assemblyTerm)) {
+						path.add(assemblyTerm);
+					}
+				} else {
+					path = Collections.emptyList();
+				}
+
+				derivations[element][token] = path;
+				types[element][token] = termTypes;
+			}
+
+			return path.isEmpty() ? null : path;
+		}
+
+		private boolean solve(int token, int element) {
+			if (token == tokens.size()) {
+				for (var i = element; i < production.length; i++) {
+					if (production[i].quantifier == Quantifier.ONE) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			if (failed[token][element]) {
+				return false;
+			}
+
+			for (var i = element; i < production.length; i++) {
+				var quantifier = production[i].quantifier;
+
+				if (derivation(i, token) != null) {
+					var next = quantifier == Quantifier.REPEATED ? i : i + 1;
+
+					if (solve(token + 1, next)) {
+						chosen[token] = i;
+						return true;
+					}
+				}
+
+				if (quantifier == Quantifier.ONE) {
+					break;
+				}
+			}
+
+			failed[token][element] = true;
+			return false;
+		}
+
+		private Match toMatch(int explored) {
+			List<List<String>> paths = new ArrayList<>();
+			Map<String, String> termTypes = new HashMap<>();
+
+			for (var token = 0; token < tokens.size(); token++) {
+				paths.add(derivations[chosen[token]][token]);
+				var tokenTypes = types[chosen[token]][token];
+				for (var i = 0; i < tokenTypes.size(); i += 2) {
+					termTypes.put(tokenTypes.get(i), tokenTypes.get(i + 1));
+				}
+			}
+
+			return new Match(explored, paths, termTypes);
+		}
+	}
+
+	/**
+	 * Composite term with separators, i.e. {@code [reg+imm]} or {@code imm(reg)}.
+	 * Assembly terms are split on the separator characters of the pattern only.
+	 */
+	private static final class Pattern extends Term {
+		private Term[] parts;
+		private final boolean[] separators = new boolean[128];
+		private String[] symbols;
+
+		private Pattern(String text) {
+			super(text);
+		}
+
+		@Override
+		boolean derive(String token, List<String> path, List<String> types) {
+			return matches(token, types);
+		}
+
+		@Override
+		boolean matches(String token, List<String> types) {
+			var mark = types.size();
+			var part = 0;
+			var start = 0;
+			var length = token.length();
+
+			while (start < length) {
+				if (part == parts.length) {
+					truncate(types, mark);
+					return false;
+				}
+
+				var c = token.charAt(start);
+				var end = start + 1;
+
+				if (!isSeparator(c)) {
+					while (end < length && !isSeparator(token.charAt(end))) {
+						end++;
+					}
+				}
+
+				var term = parts[part];
+				var ok = term == null ? symbols[part].length() == 1 && symbols[part].charAt(0) == c
+						: term.matchesPart(token.substring(start, end), types);
+
+				if (!ok) {
+					truncate(types, mark);
+					return false;
+				}
+
+				part++;
+				start = end;
+			}
+
+			if (part != parts.length) {
+				truncate(types, mark);
+				return false;
+			}
+
+			return true;
+		}
+
+		private boolean isSeparator(char c) {
+			return c < separators.length && separators[c];
+		}
+	}
+
+	/** A node of the tree with its alternatives. */
+	private static final class Rule extends Term {
+		private Term[] alternatives;
+
+		private Rule(String name) {
+			super(name);
+		}
+
+		@Override
+		boolean derive(String token, List<String> path, List<String> types) {
+			for (Term alternative : alternatives) {
+				var pathMark = path.size();
+				var typesMark = types.size();
+
+				if (alternative.pathName != null) {
+					path.add(alternative.pathName);
+				}
+
+				if (alternative.derive(token, path, types)) {
+					return true;
+				}
+
+				truncate(path, pathMark);
+				truncate(types, typesMark);
+			}
+
+			return false;
+		}
+
+		@Override
+		boolean matches(String token, List<String> types) {
+			for (Term alternative : alternatives) {
+				if (alternative.matchesPart(token, types)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	private abstract static class Term {
+		/** Name recorded in the path when the term is walked, null for literals. */
+		protected final String pathName;
+
+		protected Term(String pathName) {
+			this.pathName = pathName;
+		}
+
+		/** Match a whole assembly token, recording the walked nodes in path. */
+		abstract boolean derive(String token, List<String> path, List<String> types);
+
+		/** Match an assembly term without recording a path. */
+		abstract boolean matches(String token, List<String> types);
+
+		/** Match a term nested in a pattern; the node name itself also matches. */
+		boolean matchesPart(String token, List<String> types) {
+			if (pathName != null && pathName.equals(token)) {
+				return true;
+			}
+			return matches(token, types);
+		}
+	}
+
+	/**
+	 * Alphanumeric leaf, i.e. {@code HEX}, {@code INT}, {@code LABEL} or a plain
+	 * word that only matches itself.
+	 */
+	private static final class Word extends Term {
+		private final KeywordTable reserved;
+
+		private Word(String text, KeywordTable reserved) {
+			super(text);
+			this.reserved = reserved;
+		}
+
+		@Override
+		boolean derive(String token, List<String> path, List<String> types) {
+			return matchesPart(token, types);
+		}
+
+		@Override
+		boolean matches(String token, List<String> types) {
+			if (reserved.flags(token, 0, token.length()) != 0) {
+				return false;
+			}
+
+			boolean legit;
+
+			switch (pathName) {
+			case "HEX":
+				legit = Lexer.isHexNumber(token, 0, token.length());
+				break;
+			case "INT":
+				legit = Lexer.isNumeric(token, 0, token.length());
+				break;
+			case "LABEL":
+				legit = Lexer.isAlpha(token, 0, token.length());
+				break;
+			default:
+				return false;
+			}
+
+			if (legit) {
+				types.add(token);
+				types.add(pathName);
+			}
+
+			return legit;
+		}
+	}
+
+	/**
+	 * Compile the assemblyOpTree of a specification.
+	 *
+	 * @param spec - Specification to compile the tree of.
+	 * @return Matcher for the tree.
+	 * @throws AssemblerException if the tree is malformed.
+	 */
+	public static AssemblyOpTreeMatcher compile(SpecFile spec) throws AssemblerException {
+		return compile(spec, new KeywordTable(spec.getRegisterHash(), spec.getMnemonicTable()));
+	}
+
+	/**
+	 * Compile the assemblyOpTree of a specification.
+	 *
+	 * @param spec     - Specification to compile the tree of.
+	 * @param reserved - Registers and mnemonics of the spec.
+	 * @return Matcher for the tree.
+	 * @throws AssemblerException if the tree is malformed.
+	 */
+	public static AssemblyOpTreeMatcher compile(SpecFile spec, KeywordTable reserved) throws AssemblerException {
+		var assemblyOpTree = spec.getAssemblyOpTree();
+		var roots = assemblyOpTree.getAssemblyOpTreeHash().get(assemblyOpTree.getRootToken());
+
+		if (roots == null) {
+			throw new AssemblerException(
+					"Root token \"" + assemblyOpTree.getRootToken() + "\" not found in assemblyOpTree.");
+		}
+
+		var compiler = new AssemblyOpTreeMatcher(assemblyOpTree, reserved);
+		for (String root : roots) {
+			compiler.productions.add(compiler.compileProduction(root));
+		}
+		return compiler;
+	}
+
+	private static void truncate(List<String> list, int size) {
+		while (list.size() > size) {
+			list.remove(list.size() - 1);
+		}
+	}
+
+	private final AssemblyOpTree assemblyOpTree;
+	private final List<Element[]> productions = new ArrayList<>();
+	/** Registers and mnemonics, which the leaves of the tree do not match. */
+	private final KeywordTable reserved;
+	private final Map<String, Rule> rules = new HashMap<>();
+	private final Set<String> rulesInProgress = new HashSet<>();
+
+	private AssemblyOpTreeMatcher(AssemblyOpTree assemblyOpTree, KeywordTable reserved) {
+		this.assemblyOpTree = assemblyOpTree;
+		this.reserved = reserved;
+	}
+
+	/**
+	 * Match a line, split into assembly tokens, against the tree.
+	 *
+	 * @param assemblyTokens - Whitespace separated tokens of the line, separator
+	 *                       commas removed.
+	 * @return The match, or null if the line is not consistent with the tree.
+	 */
+	public Match match(List<String> assemblyTokens) {
+		if (assemblyTokens.isEmpty()) {
+			return null;
+		}
+
+		var explored = 0;
+
+		for (Element[] production : productions) {
+			var lineMatch = new LineMatch(production, assemblyTokens);
+			var solved = lineMatch.solve(0, 0);
+			explored += lineMatch.explored;
+
+			if (solved) {
+				return lineMatch.toMatch(explored);
+			}
+		}
+
+		return null;
+	}
+
+	private Element[] compileProduction(String production) throws AssemblerException {
+		List<Element> elements = new ArrayList<>();
+
+		for (String token : production.trim().split("\\s+")) {
+			var last = token.charAt(token.length() - 1);
+			var name = token;
+
+			if (last == '?' || last == '*' || last == '+') {
+				name = token.substring(0, token.length() - 1);
+			}
+
+			var term = compileTerm(name);
+
+			if (last == '?') {
+				elements.add(new Element(term, Quantifier.OPTIONAL));
+			} else if (last == '*') {
+				elements.add(new Element(term, Quantifier.REPEATED));
+			} else if (last == '+') {
+				elements.add(new Element(term, Quantifier.ONE));
+				elements.add(new Element(term, Quantifier.REPEATED));
+			} else {
+				elements.add(new Element(term, Quantifier.ONE));
+			}
+		}
+
+		return elements.toArray(new Element[0]);
+	}
+
+	private Rule compileRule(String name) throws AssemblerException {
+		var rule = rules.get(name);
+
+		if (rule != null) {
+			if (rulesInProgress.contains(name)) {
+				throw new AssemblerException(
+						"assemblyOpTree node \"" + name + "\" refers to itself. Check tree has no infinite loops.");
+			}
+			return rule;
+		}
+
+		rule = new Rule(name);
+		rules.put(name, rule);
+		rulesInProgress.add(name);
+
+		List<Term> alternatives = new ArrayList<>();
+		for (String alternative : assemblyOpTree.getAssemblyOpTreeHash().get(name)) {
+			alternative = alternative.trim();
+			if (alternative.split("\\s+").length > 1) {
+				throw new AssemblerException("assemblyOpTree node \"" + name + "\" has the expression \"" + alternative
+						+ "\".\nExpressions of several tokens are only supported for the root token.");
+			}
+			alternatives.add(compileTerm(alternative));
+		}
+		rule.alternatives = alternatives.toArray(new Term[0]);
+
+		rulesInProgress.remove(name);
+		return rule;
+	}
+
+	private Term compileTerm(String term) throws AssemblerException {
+		if (term.length() > 1 && term.startsWith("\"") && term.endsWith("\"")) {
+			return new Literal(term.replace("\"", ""));
+		} else if (assemblyOpTree.getAssemblyOpTreeHash().containsKey(term)) {
+			return compileRule(term);
+		}
+
+		var composite = false;
+		for (var i = 0; i < term.length(); i++) {
+			if (!Lexer.isAlphaNumeric(term.charAt(i))) {
+				composite = true;
+				break;
+			}
+		}
+
+		if (!composite) {
+			return new Word(term, reserved);
+		}
+
+		var pattern = new Pattern(term);
+		List<Term> parts = new ArrayList<>();
+		List<String> symbols = new ArrayList<>();
+		var start = 0;
+
+		while (start < term.length()) {
+			var c = term.charAt(start);
+			var end = start + 1;
+
+			if (Lexer.isAlphaNumeric(c)) {
+				while (end < term.length() && Lexer.isAlphaNumeric(term.charAt(end))) {
+					end++;
+				}
+				var part = term.substring(start, end);
+				parts.add(assemblyOpTree.getAssemblyOpTreeHash().containsKey(part) ? compileNestedRule(part)
+						: new Word(part, reserved));
+				symbols.add(part);
+			} else {
+				if (c >= pattern.separators.length) {
+					throw new AssemblerException("Unsupported character '" + c + "' in assemblyOpTree term \"" + term + "\".");
+				}
+				pattern.separators[c] = true;
+				parts.add(null);
+				symbols.add(String.valueOf(c));
+			}
+
+			start = end;
+		}
+
+		pattern.parts = parts.toArray(new Term[0]);
+		pattern.symbols = symbols.toArray(new String[0]);
+		return pattern;
+	}
+
+	/**
+	 * Nodes nested in a pattern only ever match a strict part of a term, so they
+	 * may refer back to a node that is still being compiled.
+	 */
+	private Rule compileNestedRule(String name) throws AssemblerException {
+		if (rulesInProgress.contains(name)) {
+			return rules.get(name);
+		}
+		return compileRule(name);
+	}
+}
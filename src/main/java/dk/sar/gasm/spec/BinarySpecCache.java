@@ -0,0 +1,89 @@
+package dk.sar.gasm.spec;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.FileParserException;
+
+/**
+ * Loads specs through a directory of their binary form, see
+ * {@link BinarySpecReader}, named by the SHA-256 of the YAML. A spec file that
+ * is unchanged since it was last loaded is read from its binary form and not
+ * parsed again, which is most of the time of loading a spec; any change to
+ * the file gives a new name. Specs that fail to compile are not cached, and a
+ * cached file that cannot be read is replaced.
+ * <p>
+ * Several processes may share the directory: cached files are written to a
+ * temporary file and moved into place.
+ *
+ * @author Eddie Graham
+ */
+public class BinarySpecCache implements SpecLoader {
+	private static final String EXTENSION = ".gspec";
+
+	/** Hex SHA-256 of some data. */
+	static String sha256(byte[] data) {
+		try {
+			var hash = new StringBuilder();
+
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+				hash.append(String.format("%02x", b));
+			}
+
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final Path directory;
+
+	/**
+	 * @param directory - Directory of the cached specs, created when the first
+	 *                  spec is cached.
+	 */
+	public BinarySpecCache(Path directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public CompiledSpec load(Path specFile) throws IOException, FileParserException, AssemblerException {
+		var yaml = Files.readAllBytes(specFile);
+		var cached = directory.resolve(sha256(yaml) + EXTENSION);
+
+		if (Files.isRegularFile(cached)) {
+			try {
+				return CompiledSpec.compile(new BinarySpecReader(cached.toString()).getSpecFile());
+			} catch (IOException e) {
+				// Unreadable, i.e. of an older format version: parse and replace it
+			}
+		}
+
+		var spec = YamlSpecReader.read(yaml);
+		var compiled = CompiledSpec.compile(spec);
+
+		Files.createDirectories(directory);
+		var temporary = Files.createTempFile(directory, "spec", ".tmp");
+
+		try {
+			Files.write(temporary, BinarySpecReader.encode(spec));
+
+			try {
+				Files.move(temporary, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, cached, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+
+		return compiled;
+	}
+}
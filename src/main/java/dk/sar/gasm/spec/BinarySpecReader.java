@@ -0,0 +1,309 @@
+package dk.sar.gasm.spec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.sar.gasm.data.InstructionFormat;
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.OperandFormat;
+import dk.sar.gasm.data.SpecFile;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Reads a spec from its binary form, written by {@link #encode(SpecFile)}: a
+ * table of the distinct strings of the spec followed by the spec with every
+ * string an index into the table. The file is memory-mapped and each string
+ * decoded once, so reading it takes a fraction of the time of the YAML reader.
+ * <p>
+ * Maps are read in the order they were written, as the YAML reader reads
+ * them, so a spec compiles the same from either form.
+ *
+ * @author Eddie Graham
+ */
+@RequiredArgsConstructor
+public class BinarySpecReader implements SpecReader {
+	/** Reads what an {@link Encoder} wrote. */
+	private static final class Decoder {
+		private final ByteBuffer in;
+		private final String[] strings;
+
+		private Decoder(ByteBuffer in) {
+			this.in = in;
+			strings = new String[in.getInt()];
+
+			for (var i = 0; i < strings.length; i++) {
+				var bytes = new byte[in.getInt()];
+				in.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
+
+		private List<String> list() {
+			var size = in.getInt();
+			List<String> list = new ArrayList<>(size);
+
+			for (var i = 0; i < size; i++) {
+				list.add(string());
+			}
+
+			return list;
+		}
+
+		private Map<String, String> map() {
+			var size = in.getInt();
+			Map<String, String> map = new LinkedHashMap<>();
+
+			for (var i = 0; i < size; i++) {
+				map.put(string(), string());
+			}
+
+			return map;
+		}
+
+		private Mnemonic mnemonic() {
+			var mnemonic = new Mnemonic();
+			mnemonic.setMnemonic(string());
+			mnemonic.setGlobalFieldEncodingHash(map());
+			mnemonic.setOperandFormatHash(new LinkedHashMap<>());
+
+			for (var i = in.getInt(); i > 0; i--) {
+				var key = string();
+				var format = new OperandFormat();
+				format.setFieldBitHash(map());
+				format.setInstructionFormat(list());
+				format.setMnemFormat(string());
+				format.setOperandFieldEncodings(string());
+				mnemonic.getOperandFormatHash().put(key, format);
+			}
+
+			mnemonic.setOperandsFormats(list());
+			return mnemonic;
+		}
+
+		private SpecFile spec() {
+			var spec = new SpecFile();
+			spec.setArchitecture(string());
+			spec.setEndian(string());
+			spec.setMinAdrUnit(in.getInt());
+
+			var tree = spec.getAssemblyOpTree();
+			tree.setRootToken(string());
+			tree.setAssemblyOpTreeHash(new LinkedHashMap<>());
+
+			for (var i = in.getInt(); i > 0; i--) {
+				tree.getAssemblyOpTreeHash().put(string(), list());
+			}
+
+			tree.getAssemblyOpTreeTokens().addAll(list());
+			spec.setInstructionFormatHash(new LinkedHashMap<>());
+
+			for (var i = in.getInt(); i > 0; i--) {
+				var key = string();
+				var format = new InstructionFormat();
+				format.setInstructionName(string());
+
+				for (var j = in.getInt(); j > 0; j--) {
+					format.getFieldBitHash().put(string(), in.getInt());
+				}
+
+				format.getFields().addAll(list());
+				spec.getInstructionFormatHash().put(key, format);
+			}
+
+			spec.setMnemonicTable(new LinkedHashMap<>());
+
+			for (var i = in.getInt(); i > 0; i--) {
+				spec.getMnemonicTable().put(string(), mnemonic());
+			}
+
+			spec.setRegisterHash(map());
+			return spec;
+		}
+
+		private String string() {
+			var index = in.getInt();
+			return index < 0 ? null : strings[index];
+		}
+	}
+
+	/** Writes the strings of a spec as indices into a string table. */
+	private static final class Encoder {
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+		private final List<String> table = new ArrayList<>();
+
+		private Encoder(DataOutputStream out) {
+			this.out = out;
+		}
+
+		private void list(Collection<String> values) throws IOException {
+			out.writeInt(values.size());
+
+			for (String value : values) {
+				string(value);
+			}
+		}
+
+		private void map(Map<String, String> map) throws IOException {
+			out.writeInt(map.size());
+
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				string(entry.getKey());
+				string(entry.getValue());
+			}
+		}
+
+		private void mnemonic(Mnemonic mnemonic) throws IOException {
+			string(mnemonic.getMnemonic());
+			map(mnemonic.getGlobalFieldEncodingHash());
+			out.writeInt(mnemonic.getOperandFormatHash().size());
+
+			for (Map.Entry<String, OperandFormat> entry : mnemonic.getOperandFormatHash().entrySet()) {
+				var format = entry.getValue();
+				string(entry.getKey());
+				map(format.getFieldBitHash());
+				list(format.getInstructionFormat());
+				string(format.getMnemFormat());
+				string(format.getOperandFieldEncodings());
+			}
+
+			list(mnemonic.getOperandsFormats());
+		}
+
+		private void spec(SpecFile spec) throws IOException {
+			string(spec.getArchitecture());
+			string(spec.getEndian());
+			out.writeInt(spec.getMinAdrUnit());
+
+			var tree = spec.getAssemblyOpTree();
+			string(tree.getRootToken());
+			out.writeInt(tree.getAssemblyOpTreeHash().size());
+
+			for (Map.Entry<String, List<String>> node : tree.getAssemblyOpTreeHash().entrySet()) {
+				string(node.getKey());
+				list(node.getValue());
+			}
+
+			list(tree.getAssemblyOpTreeTokens());
+			out.writeInt(spec.getInstructionFormatHash().size());
+
+			for (Map.Entry<String, InstructionFormat> entry : spec.getInstructionFormatHash().entrySet()) {
+				var format = entry.getValue();
+				string(entry.getKey());
+				string(format.getInstructionName());
+				out.writeInt(format.getFieldBitHash().size());
+
+				for (Map.Entry<String, Integer> field : format.getFieldBitHash().entrySet()) {
+					string(field.getKey());
+					out.writeInt(field.getValue());
+				}
+
+				list(format.getFields());
+			}
+
+			out.writeInt(spec.getMnemonicTable().size());
+
+			for (Map.Entry<String, Mnemonic> entry : spec.getMnemonicTable().entrySet()) {
+				string(entry.getKey());
+				mnemonic(entry.getValue());
+			}
+
+			map(spec.getRegisterHash());
+		}
+
+		private void string(String value) throws IOException {
+			if (value == null) {
+				out.writeInt(-1);
+				return;
+			}
+
+			var index = strings.get(value);
+
+			if (index == null) {
+				index = table.size();
+				strings.put(value, index);
+				table.add(value);
+			}
+
+			out.writeInt(index);
+		}
+	}
+
+	/** Version of the format, changed with the layout or the data classes. */
+	private static final int FORMAT_VERSION = 1;
+	/** "GASM" */
+	private static final int MAGIC = 0x4741534D;
+
+	/**
+	 * Decode a spec written by {@link #encode(SpecFile)}.
+	 *
+	 * @throws IOException if the data is not a spec of this format version.
+	 */
+	public static SpecFile decode(ByteBuffer data) throws IOException {
+		try {
+			if (data.getInt() != MAGIC || data.getInt() != FORMAT_VERSION) {
+				throw new IOException("Not a binary spec of format version " + FORMAT_VERSION + ".");
+			}
+
+			return new Decoder(data).spec();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Corrupt binary spec.", e);
+		}
+	}
+
+	/**
+	 * Encode a spec in the binary form.
+	 *
+	 * @return The encoded spec.
+	 */
+	public static byte[] encode(SpecFile spec) {
+		try {
+			// The string table is complete once the spec is written, and goes first
+			var body = new ByteArrayOutputStream();
+			var encoder = new Encoder(new DataOutputStream(body));
+			encoder.spec(spec);
+
+			var file = new ByteArrayOutputStream();
+			var out = new DataOutputStream(file);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(encoder.table.size());
+
+			for (String string : encoder.table) {
+				var bytes = string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			body.writeTo(out);
+			return file.toByteArray();
+		} catch (IOException e) {
+			// Not thrown by byte array streams
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@NonNull
+	private final String fileName;
+
+	@Override
+	public SpecFile getSpecFile() throws IOException {
+		try (var channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+}
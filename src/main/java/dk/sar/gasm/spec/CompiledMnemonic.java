@@ -0,0 +1,32 @@
+package dk.sar.gasm.spec;
+
+import java.util.List;
+
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.OperandFormat;
+import dk.sar.gasm.encode.EncodingTemplate;
+import lombok.Value;
+
+/**
+ * A mnemonic with its operand formats resolved, so a line is matched and
+ * encoded without looking a format up by name.
+ *
+ * @author Eddie Graham
+ */
+@Value
+public class CompiledMnemonic {
+
+	/** An operand format with its syntax and encoding template. */
+	@Value
+	public static class Format {
+		OperandFormat format;
+		/** Key of the format in {@code operandsFormats}, i.e. {@code mnem reg32, reg32}. */
+		String mnemFormat;
+		FormatSyntax syntax;
+		EncodingTemplate template;
+	}
+
+	/** Operand formats in the order of {@code operandsFormats}. */
+	List<Format> formats;
+	Mnemonic mnemonic;
+}
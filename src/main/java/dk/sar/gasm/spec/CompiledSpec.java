@@ -0,0 +1,157 @@
+package dk.sar.gasm.spec;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.FileParserException;
+import dk.sar.gasm.data.Mnemonic;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.encode.EncodingTemplate;
+import dk.sar.gasm.lexer.KeywordTable;
+import dk.sar.gasm.lexer.Lexer;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A specification compiled for assembly: the assemblyOpTree matcher, the lexer
+ * and the instruction set, whose mnemonics carry their operand format syntaxes
+ * and encoding templates, with the tables of the spec the passes read.
+ * <p>
+ * A compiled spec is immutable and may be shared by any number of assembly
+ * jobs on any number of threads. The tables are copied when it is compiled;
+ * the {@link Mnemonic} entries are shared with the spec, and the spec is kept
+ * for {@link #getFingerprint()}, so neither must be changed afterwards.
+ *
+ * @author Eddie Graham
+ */
+@Getter
+public final class CompiledSpec {
+
+	/** The mnemonics and registers looked up in the keyword table. */
+	private static final class KeywordInstructionSet implements InstructionSet {
+		private final KeywordTable keywords;
+		private final Map<Mnemonic, CompiledMnemonic> mnemonics;
+
+		private KeywordInstructionSet(SpecFile spec, KeywordTable keywords) throws AssemblerException {
+			var templates = EncodingTemplate.compileAll(spec);
+			Map<String, FormatSyntax> syntaxes = new HashMap<>();
+			this.keywords = keywords;
+			mnemonics = new IdentityHashMap<>();
+
+			for (Mnemonic mnemonic : spec.getMnemonicTable().values()) {
+				List<CompiledMnemonic.Format> formats = new ArrayList<>();
+
+				for (String opFormat : mnemonic.getOperandsFormats()) {
+					var format = mnemonic.getOperandFormatHash().get(opFormat);
+					formats.add(new CompiledMnemonic.Format(format, opFormat,
+							syntaxes.computeIfAbsent(opFormat, FormatSyntax::new), templates.get(format)));
+				}
+
+				mnemonics.put(mnemonic, new CompiledMnemonic(Collections.unmodifiableList(formats), mnemonic));
+			}
+		}
+
+		@Override
+		public CompiledMnemonic mnemonic(String s, int from, int to) {
+			var mnemonic = keywords.mnemonic(s, from, to);
+			return mnemonic == null ? null : mnemonics.get(mnemonic);
+		}
+
+		@Override
+		public String register(String name) {
+			return keywords.register(name);
+		}
+	}
+
+	/**
+	 * Compile a specification.
+	 *
+	 * @param spec - Specification to compile.
+	 * @return The compiled spec.
+	 * @throws AssemblerException if the spec is malformed.
+	 */
+	public static CompiledSpec compile(SpecFile spec) throws AssemblerException {
+		return new CompiledSpec(spec, null);
+	}
+
+	/**
+	 * Compile a specification with an instruction set built for it, as the
+	 * assemblers generated by {@link dk.sar.gasm.generator.AssemblerGenerator}
+	 * do. The spec is not checked for formats that cannot be encoded.
+	 *
+	 * @param spec           - Specification to compile.
+	 * @param instructionSet - The mnemonics and registers of the spec.
+	 * @return The compiled spec.
+	 * @throws AssemblerException if the assemblyOpTree is malformed.
+	 */
+	public static CompiledSpec compile(SpecFile spec, InstructionSet instructionSet) throws AssemblerException {
+		return new CompiledSpec(spec, instructionSet);
+	}
+
+	/**
+	 * Read and compile the specification in a YAML file.
+	 *
+	 * @param specFile - Specification file.
+	 * @return The compiled spec.
+	 * @throws FileParserException if the file is not a valid specification.
+	 * @throws AssemblerException  if the spec is malformed.
+	 */
+	public static CompiledSpec load(Path specFile) throws IOException, FileParserException, AssemblerException {
+		return compile(new YamlSpecReader(specFile.toString()).getSpecFile());
+	}
+
+	private final String architecture;
+	private final AssemblyOpTreeMatcher assemblyOpTreeMatcher;
+	private final String endian;
+	@Getter(AccessLevel.NONE)
+	private volatile String fingerprint;
+	/** Mnemonics and registers as the passes look them up. */
+	private final InstructionSet instructionSet;
+	/** Registers and mnemonics, shared by the lexer and matcher. */
+	private final KeywordTable keywords;
+	private final Lexer lexer;
+	private final int minAdrUnit;
+	private final Map<String, Mnemonic> mnemonicTable;
+	private final Map<String, String> registerHash;
+	/** The compiled spec, encoded for the fingerprint. */
+	@Getter(AccessLevel.NONE)
+	private final SpecFile spec;
+
+	private CompiledSpec(SpecFile spec, InstructionSet instructionSet) throws AssemblerException {
+		architecture = spec.getArchitecture();
+		endian = spec.getEndian();
+		minAdrUnit = spec.getMinAdrUnit();
+		mnemonicTable = Collections.unmodifiableMap(new HashMap<>(spec.getMnemonicTable()));
+		registerHash = Collections.unmodifiableMap(new HashMap<>(spec.getRegisterHash()));
+		this.spec = spec;
+
+		keywords = new KeywordTable(registerHash, mnemonicTable);
+		assemblyOpTreeMatcher = AssemblyOpTreeMatcher.compile(spec, keywords);
+		lexer = new Lexer(keywords);
+		this.instructionSet = instructionSet != null ? instructionSet : new KeywordInstructionSet(spec, keywords);
+	}
+
+	/**
+	 * SHA-256 of the spec in its binary form, the same for specs read from the
+	 * same YAML however they were loaded. Computed when first asked for, i.e.
+	 * by the object code cache, so loading a spec does not encode it.
+	 */
+	public String getFingerprint() {
+		var hash = fingerprint;
+
+		if (hash == null) {
+			// Threads racing here compute the same hash
+			hash = BinarySpecCache.sha256(BinarySpecReader.encode(spec));
+			fingerprint = hash;
+		}
+
+		return hash;
+	}
+}
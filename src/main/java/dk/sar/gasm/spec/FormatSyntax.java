@@ -0,0 +1,114 @@
+package dk.sar.gasm.spec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.sar.gasm.lexer.TokenLine;
+import lombok.Getter;
+
+/**
+ * An operand format, i.e. {@code mnem reg32, reg32}, split once into its
+ * tokens and the separator commas around them.
+ *
+ * @author Eddie Graham
+ */
+public class FormatSyntax {
+	/** Separator commas before each element. */
+	private final int[] leadingCommas;
+	/** Tokens of the format, commas removed, i.e. {@code [mnem, reg32, reg32]}. */
+	@Getter
+	private final List<String> names = new ArrayList<>();
+	/** True for elements that are an operand, false for commas on their own. */
+	private final boolean[] operands;
+	/** Separator commas after each element. */
+	private final int[] trailingCommas;
+
+	public FormatSyntax(String mnemFormat) {
+		var split = mnemFormat.trim().split("\\s+");
+		leadingCommas = new int[split.length];
+		trailingCommas = new int[split.length];
+		operands = new boolean[split.length];
+
+		for (var i = 0; i < split.length; i++) {
+			var token = split[i];
+			var start = 0;
+			var end = token.length();
+
+			while (start < end && token.charAt(start) == ',') {
+				start++;
+			}
+			while (end > start && token.charAt(end - 1) == ',') {
+				end--;
+			}
+
+			leadingCommas[i] = start;
+			trailingCommas[i] = token.length() - end;
+			operands[i] = start < end;
+
+			if (operands[i]) {
+				names.add(token.substring(start, end));
+			}
+		}
+	}
+
+	/**
+	 * Check the separators of a line: the operands must be separated by
+	 * whitespace and carry the commas of the format, i.e. {@code ADD ecx, eax}
+	 * for {@code mnem reg32, reg32}. Anything may precede the first operand.
+	 *
+	 * @param line             - Tokens of the line.
+	 * @param relevantOperands - Operands of the line in format order.
+	 * @return True if the line has the syntax of the format.
+	 */
+	public boolean matches(TokenLine line, List<String> relevantOperands) {
+		var elements = operands.length;
+		var first = line.size() - elements;
+		var operand = relevantOperands.size();
+
+		if (first < 0 || operand != names.size()) {
+			return false;
+		}
+
+		for (var i = elements - 1; i >= 0; i--) {
+			var token = first + i;
+			var raw = line.getLine();
+			var rawStart = line.rawStart(token);
+			var rawEnd = line.rawEnd(token);
+
+			if (!operands[i]) {
+				var commas = leadingCommas[i] + trailingCommas[i];
+				if (line.start(token) != line.end(token) || rawEnd - rawStart != commas) {
+					return false;
+				}
+				continue;
+			}
+
+			var text = relevantOperands.get(--operand);
+			var expectedLength = leadingCommas[i] + text.length() + trailingCommas[i];
+			var start = rawEnd - expectedLength;
+
+			// The first element may be preceded by anything, even on the same word
+			if (i == 0 ? start < rawStart : start != rawStart) {
+				return false;
+			}
+
+			for (var c = 0; c < leadingCommas[i]; c++) {
+				if (raw.charAt(start + c) != ',') {
+					return false;
+				}
+			}
+
+			if (!raw.startsWith(text, start + leadingCommas[i])) {
+				return false;
+			}
+
+			for (var c = rawEnd - trailingCommas[i]; c < rawEnd; c++) {
+				if (raw.charAt(c) != ',') {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,17 @@
+package dk.sar.gasm.spec;
+
+/**
+ * The mnemonics and registers of a spec as the passes look them up. A
+ * {@link CompiledSpec} looks them up in its keyword table, an assembler
+ * generated by {@link dk.sar.gasm.generator.AssemblerGenerator} switches on
+ * them.
+ *
+ * @author Eddie Graham
+ */
+public interface InstructionSet {
+	/** Mnemonic of a range of characters, null if not a mnemonic. */
+	CompiledMnemonic mnemonic(String s, int from, int to);
+
+	/** Encoding of a register, null if not a register. */
+	String register(String name);
+}
@@ -0,0 +1,13 @@
+package dk.sar.gasm.spec;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import dk.sar.gasm.AssemblerException;
+import dk.sar.gasm.FileParserException;
+
+/** Load and compile the specification in a file, see {@link CompiledSpec#load(Path)}. */
+@FunctionalInterface
+public interface SpecLoader {
+	CompiledSpec load(Path specFile) throws IOException, FileParserException, AssemblerException;
+}
@@ -1,7 +1,8 @@
 package dk.sar.gasm.spec;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
@@ -17,17 +18,22 @@ import lombok.RequiredArgsConstructor;
 // @Slf4j
 @RequiredArgsConstructor
 public class YamlSpecReader implements SpecReader {
-	@NonNull
-	private final String fileName;
-
-	@Override
-	public SpecFile getSpecFile() throws IOException, FileParserException {
+	/** Parse the YAML of a spec file already read. */
+	public static SpecFile read(byte[] yaml) throws IOException, FileParserException {
 		try {
 			var mapper = new ObjectMapper(new YAMLFactory());
-			return mapper.readValue(new File(fileName), SpecFile.class);
+			return mapper.readValue(yaml, SpecFile.class);
 		} catch (JsonProcessingException e) {
 			throw new FileParserException(e.getMessage(), Arrays.stream(e.getStackTrace()).map(l -> l.toString()).collect(Collectors.toList()));
 		}
 	}
 
+	@NonNull
+	private final String fileName;
+
+	@Override
+	public SpecFile getSpecFile() throws IOException, FileParserException {
+		return read(Files.readAllBytes(Paths.get(fileName)));
+	}
+
 }
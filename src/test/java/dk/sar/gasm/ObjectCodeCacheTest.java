@@ -0,0 +1,105 @@
+package dk.sar.gasm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import dk.sar.gasm.output.MemoryObjectCodeSink;
+import dk.sar.gasm.spec.CompiledSpec;
+
+@SuppressWarnings("deprecation")
+public class ObjectCodeCacheTest {
+	private static long size(List<Path> files) throws IOException {
+		long size = 0;
+		for (Path file : files) {
+			size += Files.size(file);
+		}
+		return size;
+	}
+
+	@Test
+	public void testAssemble() throws Exception {
+		var directory = Files.createTempDirectory("objects");
+		var onePass = new AssemblerOptions();
+		onePass.setOnePass(true);
+
+		try {
+			var mips = TestData.data("MIPS/mipsspec.yaml");
+			var x86 = TestData.data("x86/x86spec.yaml");
+			var mipsAssembler = new Assembler(CompiledSpec.compile(mips.getSpec()));
+			var x86Assembler = new Assembler(CompiledSpec.compile(x86.getSpec()));
+			var cache = new ObjectCodeCache(directory, ObjectCodeCache.DEFAULT_MAX_BYTES);
+
+			// A miss is assembled and stored, a hit replays the same records
+			for (var hit : new boolean[] { false, true }) {
+				var sink = new MemoryObjectCodeSink();
+				assertEquals(hit, cache.assemble(mipsAssembler, mips.getAssemblyCode(), sink, null));
+				assertEquals(TestData.assembleLines(mipsAssembler.getSpec(), new AssemblerOptions(),
+						mips.getAssemblyCode()), sink.getLines());
+			}
+			var mipsFile = TestData.files(directory).get(0);
+
+			// Options that only schedule the run share it
+			var parallel = new AssemblerOptions();
+			parallel.setParallel(true);
+			parallel.setChunkSize(7);
+			parallel.setStreaming(true);
+			assertEquals(true, cache.assemble(new Assembler(mipsAssembler.getSpec(), parallel), mips.getAssemblyCode(),
+					new MemoryObjectCodeSink(), null));
+			assertEquals(List.of(mipsFile), TestData.files(directory));
+
+			// Errors are replayed and thrown as well
+			List<String> broken = Lists.newArrayList(".text", "ADD $t1, $t2, nolabel");
+			List<String> errors = new ArrayList<>();
+			for (var i = 0; i < 2; i++) {
+				var sink = new MemoryObjectCodeSink();
+				errors.add(assertThrows(AssemblerException.class,
+						() -> cache.assemble(mipsAssembler, broken, sink, null)).getMessage());
+				assertEquals(TestData.errorLines(mipsAssembler.getSpec(), new AssemblerOptions(), broken),
+						sink.getLines());
+			}
+			assertEquals(errors.get(0), errors.get(1));
+			var stored = TestData.files(directory);
+			assertTrue(stored.contains(mipsFile));
+			assertEquals(2, stored.size());
+
+			// Other options are another run
+			assertEquals(false, cache.assemble(x86Assembler, x86.getAssemblyCode(), new MemoryObjectCodeSink(), null));
+			var x86File = TestData.files(directory).stream().filter(f -> !stored.contains(f)).findFirst().get();
+			var brokenFile = stored.stream().filter(f -> !f.equals(mipsFile)).findFirst().get();
+			Files.setLastModifiedTime(x86File, FileTime.fromMillis(System.currentTimeMillis() - 3000000));
+			Files.setLastModifiedTime(brokenFile, FileTime.fromMillis(System.currentTimeMillis() - 2000000));
+			Files.setLastModifiedTime(mipsFile, FileTime.fromMillis(System.currentTimeMillis() - 1000000));
+			var size = size(TestData.files(directory));
+
+			// A hit makes its run the most recently used, a store past the size evicts the least recently used
+			var small = new ObjectCodeCache(directory, size);
+			assertEquals(true, small.assemble(mipsAssembler, mips.getAssemblyCode(), new MemoryObjectCodeSink(), null));
+			var leastRecentlyUsed = List.of(x86File, brokenFile, mipsFile);
+			assertEquals(false, small.assemble(new Assembler(x86Assembler.getSpec(), onePass), x86.getAssemblyCode(),
+					new MemoryObjectCodeSink(), null));
+			var left = TestData.files(directory);
+			assertFalse(left.contains(x86File));
+			assertTrue(left.stream().anyMatch(f -> !leastRecentlyUsed.contains(f)));
+			var kept = leastRecentlyUsed.stream().filter(left::contains).collect(Collectors.toList());
+			assertEquals(leastRecentlyUsed.subList(leastRecentlyUsed.size() - kept.size(), leastRecentlyUsed.size()),
+					kept);
+			assertTrue(size(left) <= size / 10 * 9);
+		} finally {
+			TestData.delete(directory);
+		}
+	}
+}
@@ -1,15 +1,35 @@
 package dk.sar.gasm;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
 import com.google.common.collect.Lists;
 
 import dk.sar.gasm.data.DataSource;
+import dk.sar.gasm.data.MappedAssemblyCode;
+import dk.sar.gasm.generator.ProgramGenerator;
+import dk.sar.gasm.output.MemoryObjectCodeSink;
+import dk.sar.gasm.spec.CompiledSpec;
 
 @SuppressWarnings("deprecation")
 public class RegressionTest {
@@ -36,6 +56,224 @@ public class RegressionTest {
 		}
 	}
 
+	/** Records of a source by address, empty records left out. */
+	private Map<Integer, String> image(CompiledSpec spec, List<String> source) throws AssemblerException {
+		var sink = new MemoryObjectCodeSink();
+		new Assembler(spec).assemble(source, sink);
+		Map<Integer, String> image = new TreeMap<>();
+		for (var i = 0; i < sink.size(); i++) {
+			if (sink.getUnits(i).length > 0) {
+				image.put(sink.getAddress(i), Arrays.toString(sink.getUnits(i)));
+			}
+		}
+		return image;
+	}
+
+	@Test
+	public void testAssemblyStats() throws Exception {
+		var data = fileParserRegressionTest("MIPS/mipsspec.yaml", "MIPS/mipsassembly.asm");
+		var assembler = new Assembler(CompiledSpec.compile(data.getSpec()));
+		var code = data.getAssemblyCode();
+		var sink = new MemoryObjectCodeSink();
+		var once = new AssemblyStats();
+		var twice = new AssemblyStats();
+
+		assembler.assemble(code, sink, once);
+		assembler.assemble(code, new MemoryObjectCodeSink(), twice);
+		twice.add(once);
+
+		// Statements are the lines that are not blank or a section, labels those not led by a mnemonic
+		List<String> lines = code.stream().map(String::trim).collect(Collectors.toList());
+		var text = lines.indexOf(".text");
+		long statements = 0;
+		long instructions = 0;
+		long labels = 0;
+		for (var i = 0; i < lines.size(); i++) {
+			var line = lines.get(i);
+			if (!line.isEmpty() && !line.startsWith(".")) {
+				statements++;
+				instructions += i > text ? 1 : 0;
+				labels += data.getMnemonicTable().containsKey(line.split("\\s+")[0]) ? 0 : 1;
+			}
+		}
+		long bytes = 0;
+		for (var i = 0; i < sink.size(); i++) {
+			bytes += sink.getUnits(i).length;
+		}
+
+		assertEquals(1, once.getRuns());
+		assertEquals(code.size(), once.getLines());
+		assertEquals(statements, once.getStatements());
+		assertEquals(instructions, once.getInstructions());
+		assertEquals(labels, once.getSymbols());
+		assertEquals(bytes, once.getBytesEmitted());
+		// Every instruction matches a path and a format
+		assertTrue(once.getGrammarPaths() >= instructions);
+		assertTrue(once.getFormatCandidates() >= instructions);
+		assertEquals((double) once.getGrammarPaths() / instructions, once.getGrammarPathsPerLine(), 0);
+
+		assertEquals(2, twice.getRuns());
+		assertEquals(2 * once.getLines(), twice.getLines());
+		assertEquals(2 * once.getStatements(), twice.getStatements());
+		assertEquals(2 * once.getInstructions(), twice.getInstructions());
+		assertEquals(2 * once.getGrammarPaths(), twice.getGrammarPaths());
+		assertEquals(2 * once.getFormatCandidates(), twice.getFormatCandidates());
+		assertEquals(2 * once.getSymbols(), twice.getSymbols());
+		assertEquals(2 * once.getBytesEmitted(), twice.getBytesEmitted());
+		assertTrue(twice.report().contains("Symbol table: " + 2 * labels + " labels"));
+		assertTrue(twice.report().contains("Bytes emitted: " + 2 * bytes));
+	}
+
+	@Test
+	public void testBatchAssembly() throws Exception {
+		var data = fileParserRegressionTest("MIPS/mipsspec.yaml", "MIPS/mipsassembly.asm");
+		var expected = new Assembler(data).getObjectCode();
+		var spec = Paths.get(getClass().getClassLoader().getResource("MIPS/mipsspec.yaml").toURI()).toString();
+		var assembly = Paths.get(getClass().getClassLoader().getResource("MIPS/mipsassembly.asm").toURI());
+		var directory = Files.createTempDirectory("batch");
+		var sources = Lists.newArrayList(directory.resolve("a.asm"), directory.resolve("sub/b.asm"));
+
+		try {
+			Files.createDirectory(directory.resolve("sub"));
+			for (var source : sources) {
+				Files.copy(assembly, source);
+			}
+
+			List<String> messages = new ArrayList<>();
+			var command = AssemblyCommand.parse(new String[] { "--batch", "--jobs=2", spec, "." });
+			assertEquals(true, command.execute(directory, CompiledSpec::load, messages));
+			assertEquals(sources.size(), messages.size());
+			assertEquals(expected, Files.readAllLines(directory.resolve("a.txt")));
+			assertEquals(expected, Files.readAllLines(directory.resolve("sub/b.txt")));
+		} finally {
+			for (var source : sources) {
+				Files.deleteIfExists(source);
+				Files.deleteIfExists(source.resolveSibling(source.getFileName().toString().replace(".asm", ".txt")));
+			}
+			Files.deleteIfExists(directory.resolve("sub"));
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testBatchAssemblyWithBadFile() throws Exception {
+		var data = fileParserRegressionTest("MIPS/mipsspec.yaml", "MIPS/mipsassembly.asm");
+		var expected = new Assembler(data).getObjectCode();
+		var spec = Paths.get(getClass().getClassLoader().getResource("MIPS/mipsspec.yaml").toURI()).toString();
+		var assembly = Paths.get(getClass().getClassLoader().getResource("MIPS/mipsassembly.asm").toURI());
+		var directory = Files.createTempDirectory("batch");
+
+		try {
+			Files.copy(assembly, directory.resolve("a.asm"));
+			Files.write(directory.resolve("b.asm"), Lists.newArrayList(".data", "x 99999999999MAU", ".text"));
+			Files.copy(assembly, directory.resolve("c.asm"));
+
+			for (var streaming : new boolean[] { false, true }) {
+				List<String> messages = new ArrayList<>();
+				var args = Lists.newArrayList("--batch", "--jobs=1", spec, "a.asm", "b.asm", "c.asm");
+				if (streaming) {
+					args.add(1, "--stream");
+				}
+				var command = AssemblyCommand.parse(args.toArray(new String[0]));
+
+				// The bad file fails on its own, the files after it are still assembled
+				assertFalse(command.execute(directory, CompiledSpec::load, messages));
+				assertEquals(Lists.newArrayList("Failed: " + directory.resolve("b.asm") + " (see "
+						+ directory.resolve("b.txt") + ")"), messages.subList(0, 1));
+				assertTrue(messages.get(1).startsWith("Assembled 2 of 3 files"));
+				assertTrue(Files.readAllLines(directory.resolve("b.txt")).stream()
+						.anyMatch(line -> line.contains("\"99999999999MAU\" is not a valid size.")));
+				assertEquals(expected, Files.readAllLines(directory.resolve("a.txt")));
+				assertEquals(expected, Files.readAllLines(directory.resolve("c.txt")));
+			}
+		} finally {
+			TestData.delete(directory);
+		}
+	}
+
+	@Test
+	public void testCompiledSpecReuse() throws Exception {
+		var data = fileParserRegressionTest("MIPS/mipsspec.yaml", "MIPS/mipsassembly.asm");
+		var expected = new Assembler(data).getObjectCode();
+		var assembler = new Assembler(CompiledSpec.compile(data.getSpec()));
+
+		List<Callable<List<String>>> jobs = new ArrayList<>();
+		for (var i = 0; i < 64; i++) {
+			jobs.add(() -> {
+				var sink = new MemoryObjectCodeSink();
+				assembler.assemble(data.getAssemblyCode(), sink);
+				return sink.getLines();
+			});
+		}
+
+		var pool = Executors.newFixedThreadPool(4);
+		try {
+			for (var result : pool.invokeAll(jobs)) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testFillOption() {
+		assertEquals((byte) 0xFF, AssemblyCommand.parse(new String[] { "--fill=ff", "a.yaml", "a.asm" }).getFill());
+		assertEquals(0, AssemblyCommand.parse(new String[] { "--fill=00", "a.yaml", "a.asm" }).getFill());
+
+		// Only a byte is a fill value
+		for (var fill : new String[] { "100", "-1", "x" }) {
+			try {
+				AssemblyCommand.parse(new String[] { "--fill=" + fill, "a.yaml", "a.asm" });
+				fail(fill);
+			} catch (IllegalArgumentException e) {
+				assertEquals("Fill value is not a hex byte: --fill=" + fill, e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalAssembly() throws Exception {
+		var data = fileParserRegressionTest("Moto68000/68kspec.yaml", "Moto68000/68kassembly.asm");
+		var spec = CompiledSpec.compile(data.getSpec());
+		var source = new ProgramGenerator(data.getSpec(), 42).generate(2000);
+		var incremental = new IncrementalAssembler(new Assembler(spec));
+		Map<Integer, String> image = new TreeMap<>();
+
+		// The first run writes every record, an edit only those it changes
+		var first = incremental.assemble(source);
+		assertEquals(0, first.getRemoved().size());
+		// Lines alike are analysed once
+		assertEquals(source.stream().distinct().count(), first.getAnalysedLines());
+
+		source.add(1000, "LINK D7, #43");
+		var edit = incremental.assemble(source);
+		assertEquals(1, edit.getAnalysedLines());
+		assertTrue(edit.getEncodedStatements() < source.size() / 2);
+
+		for (var delta : List.of(first, edit)) {
+			delta.getRemoved().forEach(record -> image.remove(record.getAddress()));
+			delta.getWritten().forEach(record -> image.put(record.getAddress(), Arrays.toString(record.getUnits())));
+		}
+		assertEquals(image(spec, source), image);
+
+		// A failed run reports as a full run, the next delta is against the last run that succeeded
+		var lineCount = incremental.getLineCount();
+		source.add(10, "BRA nolabel");
+		var sink = new MemoryObjectCodeSink();
+		assertThrows(AssemblerException.class, () -> new Assembler(spec).assemble(source, sink));
+		assertThrows(AssemblerException.class, () -> incremental.assemble(source));
+		assertNotNull(incremental.getErrorReport());
+		assertEquals(sink.getError(), incremental.getErrorReport());
+		// The lines of a failed run are not kept
+		assertEquals(lineCount, incremental.getLineCount());
+
+		source.remove(10);
+		var revert = incremental.assemble(source);
+		assertEquals(0, revert.getAnalysedLines());
+		assertEquals(0, revert.getWritten().size() + revert.getRemoved().size());
+	}
+
 	@Test
 	public void testHelloWorldExample() throws Exception {
 		var specName = "HelloWorldExample/HelloWorldMipsSpec.yaml";
@@ -80,6 +318,134 @@ public class RegressionTest {
 		assemblerRegressionTest(expected, data);
 	}
 
+	@Test
+	public void testOnePassAssembly() throws Exception {
+		var onePass = new AssemblerOptions();
+		onePass.setOnePass(true);
+
+		for (var spec : new String[] { "MIPS/mipsspec.yaml", "Moto68000/68kspec.yaml", "x86/x86spec.yaml" }) {
+			var data = fileParserRegressionTest(spec, spec.replaceAll("spec\\.yaml$", "assembly.asm"));
+			var compiled = CompiledSpec.compile(data.getSpec());
+			var program = new ProgramGenerator(data.getSpec(), 7).generate(5000);
+			// A label operand that is never defined is reported at its line
+			var broken = new ArrayList<>(program);
+			var line = program.size() / 2;
+			while (!broken.get(line).matches(".* lab[a-z]+$")) {
+				line++;
+			}
+			broken.set(line, broken.get(line).replaceAll("lab[a-z]+$", "nolabel"));
+
+			for (var source : List.of(data.getAssemblyCode(), program)) {
+				assertEquals(TestData.assembleLines(compiled, new AssemblerOptions(), source),
+						TestData.assembleLines(compiled, onePass, source));
+			}
+
+			var errorLines = TestData.errorLines(compiled, onePass, broken);
+			assertEquals(TestData.errorLines(compiled, new AssemblerOptions(), broken), errorLines);
+			assertTrue(String.join("\n", errorLines).contains("Label \"nolabel \" not found."));
+		}
+	}
+
+	@Test
+	public void testParallelAssembly() throws Exception {
+		var options = new AssemblerOptions();
+		options.setParallel(true);
+		options.setParallelism(4);
+		options.setChunkSize(1);
+
+		var specNames = Lists.newArrayList("HelloWorldExample/HelloWorldMipsSpec.yaml", "MIPS/mipsspec.yaml",
+				"Moto68000/68kspec.yaml", "x86/x86spec.yaml");
+		var assemblyNames = Lists.newArrayList("HelloWorldExample/HelloWorldMipsAssembly.asm", "MIPS/mipsassembly.asm",
+				"Moto68000/68kassembly.asm", "x86/x86assembly.asm");
+
+		for (var i = 0; i < specNames.size(); i++) {
+			var data = fileParserRegressionTest(specNames.get(i), assemblyNames.get(i));
+			var expected = new Assembler(data).getObjectCode();
+			assertEquals(expected, new Assembler(data, options).getObjectCode());
+		}
+	}
+
+	@Test
+	public void testRelaxation() throws Exception {
+		// x86 with a 5 byte near JMP besides the 2 byte short one
+		var x86 = Paths.get(getClass().getClassLoader().getResource("x86/x86spec.yaml").toURI());
+		var yaml = new String(Files.readAllBytes(x86), StandardCharsets.UTF_8).replace("\r\n", "\n")
+				.replace("    adrLabel:\n      - \"LABEL\"\n",
+						"    adrLabel:\n      - \"nearLabel\"\n    nearLabel:\n      - \"LABEL\"\n")
+				.replace("  jmp:\n", "  jmpNear:\n    fieldBitHash:\n      op: 8\n      adr: 32\n    fields:\n"
+						+ "      - \"op\"\n      - \"adr\"\n  jmp:\n")
+				.replace("    globalFieldEncodingHash:\n      op: \"11101011\"\n", "")
+				.replace("      mnem adrLabel:\n        fieldBitHash: {}\n",
+						"      mnem nearLabel:\n        fieldBitHash:\n          op: \"11101001\"\n"
+								+ "        instructionFormat:\n          - \"jmpNear\"\n"
+								+ "        mnemFormat: \"mnem nearLabel\"\n"
+								+ "        operandFieldEncodings: \"mnem adr\"\n"
+								+ "      mnem adrLabel:\n        fieldBitHash:\n          op: \"11101011\"\n")
+				.replace("      - \"mnem adrLabel\"\n", "      - \"mnem nearLabel\"\n      - \"mnem adrLabel\"\n");
+		var spec = Files.createTempFile("relax", ".yaml");
+
+		try {
+			Files.write(spec, yaml.getBytes(StandardCharsets.UTF_8));
+			var compiled = CompiledSpec.load(spec);
+			// Bytes of a short JMP, a near JMP and an ADD
+			var shortJump = 2;
+			var nearJump = 5;
+			var add = 2;
+			List<String> source = Lists.newArrayList(".data", ".text", "JMP near", "JMP far", "near ADD ecx, eax");
+			for (var i = 0; i < 70; i++) {
+				source.add("ADD ecx, eax");
+			}
+			source.add("far ADD ecx, eax");
+			var skipped = add * (source.size() - 5);
+
+			var relaxed = new MemoryObjectCodeSink();
+			new Assembler(compiled).assemble(source, relaxed);
+			// The short jump over the near one, the near jump over the ADDs before far, out of short range
+			assertTrue(skipped > Byte.MAX_VALUE);
+			assertArrayEquals(new byte[] { (byte) 0xEB, (byte) nearJump }, relaxed.getUnits(0));
+			assertArrayEquals(new byte[] { (byte) 0xE9, 0, 0, 0, (byte) skipped }, relaxed.getUnits(1));
+			assertEquals(shortJump + nearJump, relaxed.getAddress(2));
+
+			// Without relaxation the first listed format is used throughout
+			var options = new AssemblerOptions();
+			options.setRelax(false);
+			var near = new MemoryObjectCodeSink();
+			new Assembler(compiled, options).assemble(source, near);
+			assertArrayEquals(new byte[] { (byte) 0xE9, 0, 0, 0, (byte) nearJump }, near.getUnits(0));
+			assertEquals(2 * nearJump, near.getAddress(2));
+		} finally {
+			Files.delete(spec);
+		}
+	}
+
+	@Test
+	public void testStreamingInput() throws Exception {
+		var file = Files.createTempFile("streaming", ".asm");
+		try {
+			Files.write(file, "a\r\n\r\nb\rc\n\u00e6 ; d\n".getBytes(StandardCharsets.UTF_8));
+			assertEquals(Files.readAllLines(file), new MappedAssemblyCode(file));
+
+			// Malformed UTF-8 fails as it does for readAllLines
+			Files.write(file, new byte[] { 'a', '\n', (byte) 0xC3, '\n' });
+			for (Callable<?> read : Lists.<Callable<?>>newArrayList(() -> Files.readAllLines(file),
+					() -> new MappedAssemblyCode(file))) {
+				try {
+					read.call();
+					fail();
+				} catch (MalformedInputException e) {
+					assertEquals(1, e.getInputLength());
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+
+		var spec = getClass().getClassLoader().getResource("x86/x86spec.yaml").getFile();
+		var assembly = getClass().getClassLoader().getResource("x86/x86assembly.asm").getFile();
+		var expected = new Assembler(new FileParser(spec, assembly).getData()).getObjectCode();
+		assertEquals(expected, new Assembler(new FileParser(spec, assembly, true).getData()).getObjectCode());
+	}
+
 	@Test
 	public void testX86() throws Exception {
 		var specName = "x86/x86spec.yaml";
@@ -0,0 +1,87 @@
+package dk.sar.gasm;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import dk.sar.gasm.data.DataSource;
+import dk.sar.gasm.output.MemoryObjectCodeSink;
+import dk.sar.gasm.spec.CompiledSpec;
+
+/**
+ * Specs, sources and files shared by the tests of the packages.
+ *
+ * @author Eddie Graham
+ */
+@SuppressWarnings("deprecation")
+public final class TestData {
+	/** The specs with a sample source of the same name, {@code spec} replaced by {@code assembly}. */
+	public static final List<String> SPECS = List.of("MIPS/mipsspec.yaml", "Moto68000/68kspec.yaml",
+			"x86/x86spec.yaml");
+
+	/**
+	 * Object code of a source, as written to object_code.txt.
+	 *
+	 * @throws AssemblerException if the source has an error.
+	 */
+	public static List<String> assembleLines(CompiledSpec spec, AssemblerOptions options, List<String> source)
+			throws AssemblerException {
+		var sink = new MemoryObjectCodeSink();
+		new Assembler(spec, options).assemble(source, sink);
+		return sink.getLines();
+	}
+
+	/** Spec and source of test resources, parsed by the {@link FileParser}. */
+	public static DataSource data(String specName, String assemblyName) throws Exception {
+		var data = new FileParser(resource(specName).toString(), resource(assemblyName).toString()).getData();
+		assertNotNull(data);
+		return data;
+	}
+
+	/** A spec of {@link #SPECS} with its sample source. */
+	public static DataSource data(String specName) throws Exception {
+		return data(specName, specName.replaceAll("spec\\.yaml$", "assembly.asm"));
+	}
+
+	/** Delete a directory and everything in it. */
+	public static void delete(Path directory) throws IOException {
+		try (var walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * Object code and error report of a source with an error, as written to
+	 * object_code.txt. Fails the test if the source assembles.
+	 */
+	public static List<String> errorLines(CompiledSpec spec, AssemblerOptions options, List<String> source) {
+		var sink = new MemoryObjectCodeSink();
+		var e = assertThrows(AssemblerException.class, () -> new Assembler(spec, options).assemble(source, sink));
+		assertNotNull(e.getMessage());
+		assertNotNull(sink.getError());
+		return sink.getLines();
+	}
+
+	/** Files of a directory, sorted. */
+	public static List<Path> files(Path directory) throws IOException {
+		try (var list = Files.list(directory)) {
+			return list.sorted().collect(Collectors.toList());
+		}
+	}
+
+	/** Path of a test resource. */
+	public static Path resource(String name) throws URISyntaxException {
+		return Paths.get(TestData.class.getClassLoader().getResource(name).toURI());
+	}
+
+	private TestData() {
+	}
+}
@@ -0,0 +1,65 @@
+package dk.sar.gasm.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import dk.sar.gasm.Assembler;
+import dk.sar.gasm.TestData;
+
+@SuppressWarnings("deprecation")
+public class AssemblerDaemonTest {
+	@Test
+	public void testAssemble() throws Exception {
+		var expected = new Assembler(TestData.data("x86/x86spec.yaml")).getObjectCode();
+		var spec = TestData.resource("x86/x86spec.yaml").toString();
+		var assembly = TestData.resource("x86/x86assembly.asm").toString();
+		var directory = Files.createTempDirectory("daemon");
+
+		try (var daemon = new AssemblerDaemon(0, 2, directory)) {
+			var server = new Thread(() -> {
+				try {
+					daemon.serve();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			server.start();
+
+			var tokenFile = AssemblerDaemon.tokenFile(directory, daemon.getPort());
+			if (Files.getFileStore(tokenFile).supportsFileAttributeView("posix")) {
+				assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+			}
+			var token = DaemonClient.readToken(directory, daemon.getPort());
+
+			List<String> messages = new ArrayList<>();
+			for (var i = 0; i < 2; i++) {
+				assertEquals(0, DaemonClient.assemble(daemon.getPort(), token, directory,
+						new String[] { spec, assembly }, messages));
+				assertEquals(expected, Files.readAllLines(directory.resolve("object_code.txt")));
+			}
+			assertEquals(1, daemon.getSpecs().size());
+
+			assertEquals(1, DaemonClient.assemble(daemon.getPort(), token, directory, new String[] { spec }, messages));
+			assertEquals(Lists.newArrayList("Assembly file not given.", "Specification file: " + spec), messages);
+
+			messages.clear();
+			assertEquals(2, DaemonClient.stop(daemon.getPort(), token + "x", messages));
+			assertEquals(Lists.newArrayList("Wrong token, see " + tokenFile + "."), messages);
+
+			assertEquals(0, DaemonClient.stop(daemon.getPort(), token, messages));
+			server.join();
+			assertFalse(Files.exists(tokenFile));
+		} finally {
+			TestData.delete(directory);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package dk.sar.gasm.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import dk.sar.gasm.AssemblerOptions;
+import dk.sar.gasm.TestData;
+import dk.sar.gasm.data.SpecFile;
+import dk.sar.gasm.spec.BinarySpecReader;
+import dk.sar.gasm.spec.CompiledSpec;
+import dk.sar.gasm.spec.SpecReader;
+
+@SuppressWarnings("deprecation")
+public class AssemblerGeneratorTest {
+	/** Compile a generated assembler and check that it looks up as the spec does. */
+	private static CompiledSpec generated(SpecFile spec, String className, Path directory) throws Exception {
+		var source = new AssemblerGenerator(spec).write(className, directory);
+
+		var compiler = ToolProvider.getSystemJavaCompiler();
+		assertEquals(0, compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"), "-d",
+				directory.toString(), source.toString()));
+
+		try (var loader = new URLClassLoader(new URL[] { directory.toUri().toURL() },
+				AssemblerGeneratorTest.class.getClassLoader())) {
+			var generated = loader.loadClass(className);
+			var compiled = (CompiledSpec) generated.getMethod("spec").invoke(null);
+			var interpreted = CompiledSpec.compile(spec).getInstructionSet();
+			var instructionSet = compiled.getInstructionSet();
+
+			assertEquals(spec, ((SpecReader) generated.getConstructor().newInstance()).getSpecFile());
+			assertEquals(generated, instructionSet.getClass());
+
+			for (var name : spec.getMnemonicTable().keySet()) {
+				var line = " " + name + ",";
+				var expected = interpreted.mnemonic(line, 1, line.length() - 1);
+				var actual = instructionSet.mnemonic(line, 1, line.length() - 1);
+
+				assertEquals(expected.getMnemonic(), actual.getMnemonic());
+				assertEquals(expected.getFormats().size(), actual.getFormats().size());
+
+				for (var i = 0; i < expected.getFormats().size(); i++) {
+					var template = expected.getFormats().get(i).getTemplate();
+					var folded = actual.getFormats().get(i).getTemplate();
+					assertArrayEquals(template.constantWords(), folded.constantWords());
+					assertEquals(template.getSlots(), folded.getSlots());
+					assertEquals(template.getWidth(), folded.getWidth());
+				}
+
+				assertNull(instructionSet.mnemonic(line, 0, line.length()));
+			}
+
+			for (var register : spec.getRegisterHash().entrySet()) {
+				assertEquals(register.getValue(), instructionSet.register(register.getKey()));
+				assertNull(instructionSet.register(register.getKey() + "_"));
+			}
+
+			return compiled;
+		}
+	}
+
+	@Test
+	public void testGeneratedAssemblers() throws Exception {
+		var directory = Files.createTempDirectory("generated");
+
+		try {
+			for (var spec : TestData.SPECS) {
+				var data = TestData.data(spec);
+				var className = "generated.Assembler" + spec.substring(0, spec.indexOf('/'));
+				var compiled = generated(data.getSpec(), className, directory);
+
+				var program = new ProgramGenerator(data.getSpec(), 3).generate(2000);
+				for (var assembly : List.of(data.getAssemblyCode(), program)) {
+					assertEquals(TestData.assembleLines(CompiledSpec.compile(data.getSpec()), new AssemblerOptions(),
+							assembly), TestData.assembleLines(compiled, new AssemblerOptions(), assembly));
+				}
+			}
+		} finally {
+			TestData.delete(directory);
+		}
+	}
+
+	@Test
+	public void testLargeSpec() throws Exception {
+		var directory = Files.createTempDirectory("generated");
+
+		try {
+			// Enough mnemonics of one length and registers to take several methods each
+			var data = TestData.data("MIPS/mipsspec.yaml");
+			var spec = BinarySpecReader.decode(ByteBuffer.wrap(BinarySpecReader.encode(data.getSpec())));
+			var add = spec.getMnemonicTable().get("ADD");
+
+			for (var i = 0; i < 800; i++) {
+				spec.getMnemonicTable().put(String.format("q%04d", i), add);
+				spec.getRegisterHash().put(String.format("$q%04d", i), "11111");
+			}
+
+			var compiled = generated(spec, "generated.LargeAssembler", directory);
+			var source = Files.readString(directory.resolve("generated/LargeAssembler.java"));
+			for (var method : List.of("mnemonicLength5_1(", "mnemonicTable1(", "register1(", "registerHash1(")) {
+				assertTrue(method, source.contains(method));
+			}
+
+			assertEquals(TestData.assembleLines(CompiledSpec.compile(data.getSpec()), new AssemblerOptions(),
+					data.getAssemblyCode()),
+					TestData.assembleLines(compiled, new AssemblerOptions(), data.getAssemblyCode()));
+		} finally {
+			TestData.delete(directory);
+		}
+	}
+}
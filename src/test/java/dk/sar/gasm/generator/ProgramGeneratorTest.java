@@ -0,0 +1,35 @@
+package dk.sar.gasm.generator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.sar.gasm.Assembler;
+import dk.sar.gasm.TestData;
+import dk.sar.gasm.output.MemoryObjectCodeSink;
+import dk.sar.gasm.spec.CompiledSpec;
+
+@SuppressWarnings("deprecation")
+public class ProgramGeneratorTest {
+	@Test
+	public void testGenerate() throws Exception {
+		var statements = 20000;
+
+		for (var spec : TestData.SPECS) {
+			var data = TestData.data(spec);
+			var generator = new ProgramGenerator(data.getSpec(), 42);
+			var program = generator.generate(statements);
+
+			assertEquals(spec, List.of(), generator.getUnusableFormats());
+			assertEquals(statements, program.stream().filter(line -> !line.startsWith(".")).count());
+			assertEquals(program, new ProgramGenerator(data.getSpec(), 42).generate(statements));
+
+			// A record per statement
+			var sink = new MemoryObjectCodeSink();
+			new Assembler(CompiledSpec.compile(data.getSpec())).assemble(program, sink);
+			assertEquals(statements, sink.getLines().size());
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package dk.sar.gasm.lexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import dk.sar.gasm.TestData;
+import dk.sar.gasm.spec.CompiledSpec;
+
+@SuppressWarnings("deprecation")
+public class KeywordTableTest {
+	@Test
+	public void testCollidingHashes() {
+		// "Aa" and "BB" have the same string hash
+		var registers = new HashMap<String, String>();
+		for (var i = 0; i < 1000; i++) {
+			registers.put("r" + i, Integer.toBinaryString(i));
+		}
+		registers.put("Aa", "0");
+		registers.put("BB", "1");
+		var table = new KeywordTable(registers, new HashMap<>());
+		for (var register : registers.entrySet()) {
+			assertEquals(register.getValue(), table.register(register.getKey()));
+		}
+		assertEquals(null, table.register("r" + registers.size()));
+	}
+
+	@Test
+	public void testSpecKeywords() throws Exception {
+		var data = TestData.data("x86/x86spec.yaml");
+		var keywords = CompiledSpec.compile(data.getSpec()).getKeywords();
+		for (var register : data.getRegisterHash().entrySet()) {
+			var line = " " + register.getKey() + ",";
+			assertEquals(register.getValue(), keywords.register(register.getKey()));
+			assertEquals(TokenLine.REGISTER, keywords.flags(line, 1, line.length() - 1));
+		}
+		for (var mnemonic : data.getMnemonicTable().entrySet()) {
+			assertTrue(mnemonic.getValue() == keywords.mnemonic(mnemonic.getKey(), 0, mnemonic.getKey().length()));
+		}
+		assertEquals(0, keywords.flags("ADDeax", 0, 6));
+		assertEquals(null, keywords.register("ea"));
+	}
+}
@@ -0,0 +1,69 @@
+package dk.sar.gasm.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import dk.sar.gasm.Assembler;
+import dk.sar.gasm.AssemblerOptions;
+import dk.sar.gasm.TestData;
+
+@SuppressWarnings("deprecation")
+public class ObjectCodeSinkTest {
+	@Test
+	public void testBinaryImage() throws Exception {
+		var file = Files.createTempFile("image", ".bin");
+		try {
+			try (var sink = new BinaryImageSink(file)) {
+				sink.open(16, "little");
+				sink.write(0, new byte[] { 1, 2 });
+				sink.write(2, new byte[] { 3, 4 });
+				sink.write(0, new byte[] { 5, 6 });
+			}
+			assertArrayEquals(new byte[] { 6, 5, (byte) 0xFF, (byte) 0xFF, 4, 3 }, Files.readAllBytes(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testHexRecords() throws Exception {
+		var data = TestData.data("HelloWorldExample/HelloWorldMipsSpec.yaml",
+				"HelloWorldExample/HelloWorldMipsAssembly.asm");
+
+		var hex = new ByteArrayOutputStream();
+		try (var sink = new IntelHexSink(hex)) {
+			new Assembler(data, new AssemblerOptions(), sink);
+		}
+		assertEquals(":1000000048656C6C6F20576F726C64240200043C6E\n:0B001000011001342400000000000C6F\n"
+				+ ":00000001FF\n", hex.toString());
+
+		var srec = new ByteArrayOutputStream();
+		try (var sink = new SRecordSink(srec)) {
+			new Assembler(data, new AssemblerOptions(), sink);
+		}
+		assertEquals("S0030000FC\nS113000048656C6C6F20576F726C64240200043C6A\nS10E0010011001342400000000000C6B\n"
+				+ "S5030002FA\nS9030000FC\n", srec.toString());
+	}
+
+	@Test
+	public void testTextSinks() throws Exception {
+		var data = TestData.data("x86/x86spec.yaml");
+		var expected = new Assembler(data).getObjectCode();
+
+		var memory = new MemoryObjectCodeSink();
+		new Assembler(data, new AssemblerOptions(), memory);
+		assertEquals(expected, memory.getLines());
+
+		var text = new StringWriter();
+		try (var file = new FileObjectCodeSink(text)) {
+			new Assembler(data, new AssemblerOptions(), file);
+		}
+		assertEquals(String.join("\n", expected) + "\n", text.toString());
+	}
+}
@@ -0,0 +1,47 @@
+package dk.sar.gasm.spec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import dk.sar.gasm.AssemblerOptions;
+import dk.sar.gasm.TestData;
+
+@SuppressWarnings("deprecation")
+public class BinarySpecCacheTest {
+	@Test
+	public void testLoad() throws Exception {
+		var directory = Files.createTempDirectory("specs");
+		var cache = new BinarySpecCache(directory);
+
+		try {
+			for (var run = 0; run < 3; run++) {
+				for (var spec : TestData.SPECS) {
+					var data = TestData.data(spec);
+					assertEquals(data.getSpec(),
+							BinarySpecReader.decode(ByteBuffer.wrap(BinarySpecReader.encode(data.getSpec()))));
+					assertEquals(TestData.assembleLines(CompiledSpec.compile(data.getSpec()), new AssemblerOptions(),
+							data.getAssemblyCode()),
+							TestData.assembleLines(cache.load(TestData.resource(spec)), new AssemblerOptions(),
+									data.getAssemblyCode()));
+				}
+
+				var cached = TestData.files(directory);
+				assertEquals(TestData.SPECS.size(), cached.size());
+
+				// A cached spec that cannot be read is replaced on the next run
+				if (run == 1) {
+					Files.write(cached.get(0), new byte[] { 1, 2, 3 });
+				} else if (run == 2) {
+					assertTrue(Files.size(cached.get(0)) > 3);
+				}
+			}
+		} finally {
+			TestData.delete(directory);
+		}
+	}
+}